@@ -23,30 +23,44 @@ package com.viromedia.bridge.component;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.facebook.common.references.CloseableReference;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
-import com.viro.core.internal.Image;
 import com.viro.core.PortalScene;
+import com.viro.core.Node;
 import com.viro.core.Texture;
+import com.viro.core.Vector;
+import com.viro.core.internal.CameraCallback;
 import com.viromedia.bridge.component.node.VRTNode;
 import com.viromedia.bridge.component.node.VRTScene;
 import com.viromedia.bridge.utility.HdrImageDownloader;
 import com.viromedia.bridge.utility.Helper;
-import com.viromedia.bridge.utility.ImageDownloadListener;
+import com.viromedia.bridge.utility.ImageDecodeScheduler;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
+import com.viromedia.bridge.utility.PanoramaTileLayer;
+import com.viromedia.bridge.utility.PanoramaTileSource;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroEvents;
+import com.viromedia.bridge.utility.ViroLog;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class VRT360Image extends VRTNode {
+    private static final String TAG = ViroLog.getTag(VRT360Image.class);
     private static final float[] sDefaultRotation = {0, 0, 0};
+    private static final long TILE_UPDATE_INTERVAL_MS = 100;
 
     private ReadableMap mSourceMap;
     private float[] mRotation = sDefaultRotation;
-    private Image mLatestImage;
+    private TextureCache.CachedTexture mLatestCachedTexture;
     private Texture mLatestTexture;
     private String mStereoMode;
     private Texture.Format mFormat = Texture.Format.RGBA8;
@@ -54,13 +68,22 @@ public class VRT360Image extends VRTNode {
     private boolean mImageNeedsDownload;
     private HDRImageDownloadListener mHDRDownloadListener;
     private Image360DownloadListener mImageDownloadListener;
+    private List<PreviewImageDownloadListener> mPreviewListeners = new ArrayList<>();
+    private int mShownPreviewSize;
     private boolean mIsHdr;
+    private boolean mProgressive;
+    private boolean mTiled;
+    private TileSourceOpenListener mTileSourceListener;
+    private PanoramaTileSource mTileSource;
+    private PanoramaTileLayer mTileLayer;
 
     public VRT360Image(ReactContext context) {
         super(context);
         mMainHandler = new Handler(Looper.getMainLooper());
         mImageNeedsDownload = false;
         mIsHdr = false;
+        mProgressive = false;
+        mTiled = false;
     }
 
     public void setStereoMode(String mode){
@@ -71,6 +94,15 @@ public class VRT360Image extends VRTNode {
         mIsHdr = hdr;
     }
 
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
+    }
+
+    public void setTiled(boolean tiled) {
+        mTiled = tiled;
+        mImageNeedsDownload = true;
+    }
+
     public void setSource(ReadableMap source) {
         mSourceMap = source;
         mImageNeedsDownload = true;
@@ -101,16 +133,39 @@ public class VRT360Image extends VRTNode {
 
         imageDownloadDidStart();
         invalidateImageDownloadListeners();
+        disposeTiledPanorama();
 
         final Context context = getContext();
         if (mIsHdr){
             mHDRDownloadListener = new HDRImageDownloadListener();
             HdrImageDownloader.getHdrTextureAsync(mSourceMap, mHDRDownloadListener, context);
         } else {
+            // The background holds the whole panorama at a coarse resolution; full resolution
+            // tiles are streamed in over it where the camera is looking.
+            if (mTiled) {
+                loadTiledPanorama();
+            }
+
+            TextureCache.CachedTexture cached = TextureCache.acquire(getTextureCacheKey());
+            if (cached != null) {
+                setBackgroundTexture(cached);
+                imageDownloadDidFinish();
+                mImageNeedsDownload = false;
+                return;
+            }
+
+            // Show quicker, smaller decodes of the panorama while the full one loads
+            mShownPreviewSize = 0;
+            if (mProgressive) {
+                downloadPreviewImages();
+            }
+
             ImageDownloader downloader = new ImageDownloader(context);
             downloader.setTextureFormat(mFormat);
+            // Panoramas are often larger than the GPU can hold; never decode past what it can.
+            downloader.setTargetSize(Helper.getMaxTextureSize());
             mImageDownloadListener = new Image360DownloadListener();
-            downloader.getImageAsync(mSourceMap, mImageDownloadListener);
+            mImageDownloadListener.setFetchHandle(downloader.getImageReferenceAsync(mSourceMap, mImageDownloadListener));
         }
 
         mImageNeedsDownload = false;
@@ -120,19 +175,126 @@ public class VRT360Image extends VRTNode {
     public void onTearDown() {
         super.onTearDown();
         invalidateImageDownloadListeners();
+        disposeTiledPanorama();
+        releaseBackgroundTexture();
+    }
+
+    private void loadTiledPanorama() {
+        final String URI_KEY = "uri";
+        if (!mSourceMap.hasKey(URI_KEY)) {
+            return;
+        }
+        Uri uri = Helper.parseUri(mSourceMap.getString(URI_KEY), getContext());
+        mTileSourceListener = new TileSourceOpenListener();
+        PanoramaTileSource.openAsync(getContext(), uri, mTileSourceListener);
+    }
+
+    private void disposeTiledPanorama() {
+        if (mTileSourceListener != null) {
+            mTileSourceListener.invalidate();
+            mTileSourceListener = null;
+        }
+        mMainHandler.removeCallbacks(mTileUpdater);
+        if (mTileLayer != null) {
+            mTileLayer.dispose();
+            mTileLayer = null;
+        }
+        if (mTileSource != null) {
+            mTileSource.recycle();
+            mTileSource = null;
+        }
+    }
+
+    private void tileSourceDidOpen(PanoramaTileSource source) {
+        mTileSource = source;
+        mTileLayer = new PanoramaTileLayer(source, mFormat, PanoramaTileLayer.DEFAULT_BUDGET_BYTES);
+
+        // Tiles belong to the same portal as the background they cover
+        Node parent = getNodeJni();
+        if (parent != null && parent.getParentPortalScene() != null) {
+            parent = parent.getParentPortalScene();
+        }
+        if (parent != null) {
+            parent.addChildNode(mTileLayer.getNode());
+        }
+        mMainHandler.post(mTileUpdater);
+    }
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
-            mLatestImage = null;
+    /**
+     * Periodically hands the camera's transform to the tile layer so it can load what's in view.
+     */
+    private final Runnable mTileUpdater = new Runnable() {
+        @Override
+        public void run() {
+            final PanoramaTileLayer layer = mTileLayer;
+            if (layer == null || mScene == null || isTornDown()) {
+                return;
+            }
+
+            mScene.getCameraPositionAsync(new CameraCallback() {
+                @Override
+                public void onGetCameraOrientation(final float posX, final float posY, final float posZ,
+                                                   float rotEulerX, float rotEulerY, float rotEulerZ,
+                                                   final float forwardX, final float forwardY, final float forwardZ,
+                                                   final float upX, final float upY, final float upZ) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (layer != mTileLayer) {
+                                return;
+                            }
+                            float[] rotation = {(float) Math.toRadians(mRotation[0]),
+                                    (float) Math.toRadians(mRotation[1]), (float) Math.toRadians(mRotation[2])};
+                            layer.update(new Vector(posX, posY, posZ), new Vector(forwardX, forwardY, forwardZ),
+                                    new Vector(upX, upY, upZ), rotation);
+                        }
+                    });
+                }
+            });
+            mMainHandler.postDelayed(this, TILE_UPDATE_INTERVAL_MS);
         }
+    };
+
+    private TextureCache.Key getTextureCacheKey() {
+        return TextureCache.keyFor(mSourceMap, mFormat, false, mStereoMode,
+                Helper.getMaxTextureSize(), getContext());
+    }
+
+    private void downloadPreviewImages() {
+        for (int previewSize : ImageDownloader.getPreviewTargetSizes(Helper.getMaxTextureSize())) {
+            ImageDownloader downloader = new ImageDownloader(getContext());
+            downloader.setTextureFormat(mFormat);
+            downloader.setTargetSize(previewSize);
+            // The smallest preview is decoded ahead of everything else
+            downloader.setPriority(mPreviewListeners.isEmpty()
+                    ? ImageDecodeScheduler.Lane.PLACEHOLDER : ImageDecodeScheduler.Lane.VISIBLE);
+
+            PreviewImageDownloadListener listener = new PreviewImageDownloadListener(previewSize);
+            mPreviewListeners.add(listener);
+            listener.setFetchHandle(downloader.getImageReferenceAsync(mSourceMap, listener));
+        }
+    }
+
+    private void invalidatePreviewListeners() {
+        for (PreviewImageDownloadListener listener : mPreviewListeners) {
+            listener.invalidate();
+        }
+        mPreviewListeners.clear();
+    }
 
-        if (mLatestTexture != null) {
+    private void releaseBackgroundTexture() {
+        if (mLatestCachedTexture != null) {
+            TextureCache.release(mLatestCachedTexture);
+            mLatestCachedTexture = null;
+        } else if (mLatestTexture != null) {
             mLatestTexture.dispose();
-            mLatestTexture = null;
         }
+        mLatestTexture = null;
     }
 
     private void invalidateImageDownloadListeners(){
+        invalidatePreviewListeners();
+
         if (mImageDownloadListener != null) {
             mImageDownloadListener.invalidate();
             mImageDownloadListener = null;
@@ -171,11 +333,20 @@ public class VRT360Image extends VRTNode {
         );
     }
 
-    private class Image360DownloadListener implements ImageDownloadListener {
+    private class Image360DownloadListener implements ImageReferenceListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
         }
 
         @Override
@@ -184,23 +355,18 @@ public class VRT360Image extends VRTNode {
         }
 
         @Override
-        public void completed(final Bitmap result) {
+        public void completed(final CloseableReference<Bitmap> result) {
             mMainHandler.post(new Runnable() {
                 public void run() {
                     if (!isValid()) {
+                        result.close();
                         return;
                     }
 
-                    if (mLatestImage != null) {
-                        mLatestImage.destroy();
-                    }
-
-                    if (mLatestTexture != null) {
-                        mLatestTexture.dispose();
-                    }
-
-                    mLatestImage = new Image(result, mFormat);
-                    setBackgroundTexture(new Texture(mLatestImage, true, false, mStereoMode));
+                    invalidatePreviewListeners();
+                    mShownPreviewSize = 0;
+                    setBackgroundTexture(TextureCache.acquire(getTextureCacheKey(), result.get()));
+                    result.close();
 
                     imageDownloadDidFinish();
                     mImageDownloadListener = null;
@@ -217,6 +383,98 @@ public class VRT360Image extends VRTNode {
         }
     }
 
+    private class TileSourceOpenListener implements PanoramaTileSource.OpenListener {
+        private volatile boolean mIsValid = true;
+
+        public void invalidate() {
+            mIsValid = false;
+        }
+
+        @Override
+        public boolean isValid() {
+            return mIsValid;
+        }
+
+        @Override
+        public void completed(final PanoramaTileSource source) {
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    if (!isValid()) {
+                        source.recycle();
+                        return;
+                    }
+                    mTileSourceListener = null;
+                    tileSourceDidOpen(source);
+                }
+            });
+        }
+
+        @Override
+        public void failed(String error) {
+            // The coarse background is still shown; only the sharper tiles are missing
+            ViroLog.warn(TAG, "Unable to stream panorama tiles: " + error);
+        }
+    }
+
+    private class PreviewImageDownloadListener implements ImageReferenceListener {
+        private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
+        private final int mPreviewSize;
+
+        public PreviewImageDownloadListener(int previewSize) {
+            mPreviewSize = previewSize;
+        }
+
+        public void invalidate() {
+            mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
+        }
+
+        @Override
+        public boolean isValid() {
+            return mIsValid;
+        }
+
+        @Override
+        public void completed(final CloseableReference<Bitmap> result) {
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    // Drop previews that arrive after a sharper one is already shown
+                    if (!isValid() || mPreviewSize <= mShownPreviewSize) {
+                        result.close();
+                        return;
+                    }
+
+                    TextureCache.Key key = TextureCache.keyFor(mSourceMap, mFormat, false,
+                            mStereoMode, mPreviewSize, getContext());
+                    setBackgroundTexture(TextureCache.acquire(key, result.get()));
+                    result.close();
+                    mShownPreviewSize = mPreviewSize;
+                    mPreviewListeners.remove(PreviewImageDownloadListener.this);
+                }
+            });
+        }
+
+        @Override
+        public void failed(String error) {
+            // The full image reports its own errors; a missing preview just isn't shown
+            ViroLog.debug(TAG, "Unable to load preview image: " + error);
+        }
+    }
+
+    private void setBackgroundTexture(TextureCache.CachedTexture cached) {
+        releaseBackgroundTexture();
+        mLatestCachedTexture = cached;
+        setBackgroundTexture(cached.getTexture());
+    }
+
     private void setBackgroundTexture(Texture texture){
         mLatestTexture = texture;
 
@@ -241,26 +499,16 @@ public class VRT360Image extends VRTNode {
         }
 
         @Override
-        public void completed(Texture result) {
+        public void completed(TextureCache.CachedTexture result) {
             if (result == null){
                 onError("Viro: Error loading hdr file.");
                 return;
             } else {
-                if (mLatestImage != null) {
-                    mLatestImage.destroy();
-                    mLatestImage = null;
-                }
-
-                if (mLatestTexture != null) {
-                    mLatestTexture.dispose();
-                    mLatestTexture = null;
-                }
-
                 setBackgroundTexture(result);
                 imageDownloadDidFinish();
             }
 
-            mImageDownloadListener = null;
+            mHDRDownloadListener = null;
         }
     }
 }
@@ -67,6 +67,12 @@ public class VRT360ImageManager extends VRTViroViewGroupManager<VRT360Image> {
     @ReactProp(name = "isHdr", defaultBoolean = false)
     public void setIsHdr(VRT360Image view, boolean hdr) { view.setIsHdr(hdr); }
 
+    @ReactProp(name = "progressive", defaultBoolean = false)
+    public void setProgressive(VRT360Image view, boolean progressive) { view.setProgressive(progressive); }
+
+    @ReactProp(name = "tiled", defaultBoolean = false)
+    public void setTiled(VRT360Image view, boolean tiled) { view.setTiled(tiled); }
+
     @Override
     public Map getExportedCustomDirectEventTypeConstants() {
         Map events = super.getExportedCustomDirectEventTypeConstants();
@@ -40,6 +40,7 @@ import com.viro.core.ViroViewScene;
 import com.viromedia.bridge.ReactViroPackage;
 import com.viromedia.bridge.component.node.VRTScene;
 import com.viromedia.bridge.module.MaterialManager;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroEvents;
 import com.viromedia.bridge.module.PerfMonitor;
 import com.viromedia.bridge.utility.ViroLog;
@@ -210,6 +211,8 @@ public class VRT3DSceneNavigator extends FrameLayout {
          */
         MaterialManager materialManager = reactContext.getNativeModule(MaterialManager.class);
         materialManager.reloadMaterials();
+
+        TextureCache.registerMemoryCallbacks(reactContext);
     }
 
     protected ViroView createViroView(ReactContext reactContext) {
@@ -330,6 +333,10 @@ public class VRT3DSceneNavigator extends FrameLayout {
         MaterialManager materialManager = mReactContext.getNativeModule(MaterialManager.class);
         materialManager.shouldReload();
 
+        // The scenes released their textures above; drop the ones kept for reuse while the
+        // renderer they belong to is still alive.
+        TextureCache.evictUnused();
+
         if (mViroView != null) {
             mViroView.onActivityStopped(mReactContext.getCurrentActivity());
             mViroView.dispose();
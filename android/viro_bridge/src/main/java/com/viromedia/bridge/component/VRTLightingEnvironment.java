@@ -25,17 +25,15 @@ import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.viro.core.PortalScene;
-import com.viro.core.Texture;
-import com.viro.core.internal.Image;
 import com.viromedia.bridge.component.node.VRTNode;
 import com.viromedia.bridge.component.node.VRTScene;
 import com.viromedia.bridge.utility.HdrImageDownloader;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroEvents;
 
 public class VRTLightingEnvironment extends VRTNode {
     private ReadableMap mSourceMap;
-    private Image mLatestImage;
-    private Texture mLatestTexture;
+    private TextureCache.CachedTexture mLatestTexture;
     private boolean mImageNeedsDownload;
     private IBLImageDownloadListener mHdrImageDownloadListener;
     private PortalScene mTargetedPortalScene = null;
@@ -83,13 +81,8 @@ public class VRTLightingEnvironment extends VRTNode {
             mHdrImageDownloadListener = null;
         }
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
-            mLatestImage = null;
-        }
-
         if (mLatestTexture != null) {
-            mLatestTexture.dispose();
+            TextureCache.release(mLatestTexture);
             mLatestTexture = null;
         }
     }
@@ -129,14 +122,12 @@ public class VRTLightingEnvironment extends VRTNode {
         }
 
         @Override
-        public void completed(Texture result) {
+        public void completed(TextureCache.CachedTexture result) {
             if (result == null){
                 onError("Viro: Error loading hdr file.");
                 return;
             } else {
-                if (mLatestTexture != null) {
-                    mLatestTexture.dispose();
-                }
+                TextureCache.CachedTexture previousTexture = mLatestTexture;
                 mLatestTexture = result;
 
                 // Set the loaded image onto the lighting environment
@@ -145,10 +136,13 @@ public class VRTLightingEnvironment extends VRTNode {
                     mTargetedPortalScene = portal;
 
                     if (portal != null) {
-                        portal.setLightingEnvironment(mLatestTexture);
+                        portal.setLightingEnvironment(mLatestTexture.getTexture());
                     }
                 }
 
+                // The previous texture may be shared, so only let go of it once replaced
+                TextureCache.release(previousTexture);
+
                 // Notify callbacks
                 imageDownloadDidFinish();
             }
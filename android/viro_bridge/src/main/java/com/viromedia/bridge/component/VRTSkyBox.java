@@ -21,50 +21,41 @@
 
 package com.viromedia.bridge.component;
 
-import android.graphics.Bitmap;
+import android.net.Uri;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableMap;
-import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.viro.core.Node;
 import com.viro.core.PortalScene;
-import com.viro.core.internal.Image;
 import com.viro.core.Texture;
 import com.viromedia.bridge.component.node.VRTNode;
 import com.viromedia.bridge.component.node.VRTScene;
+import com.viromedia.bridge.utility.CubeTextureLoader;
 import com.viromedia.bridge.utility.Helper;
-import com.viromedia.bridge.utility.ImageDownloadListener;
-import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroLog;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-
 public class VRTSkyBox extends VRTNode {
     private static final long COLOR_NOT_SET = 0;
 
     private static final String TAG = ViroLog.getTag(VRTSkyBox.class);
+    private static final String URI_KEY = "uri";
     private final ReactContext mContext;
     private ReadableMap mSourceMap;
-    private Map<String, Image> mImageMap = new HashMap<>();
-    private Texture mLatestTexture;
-    private ImageDownloader mImageDownloader;
+    private TextureCache.CachedTexture mLatestTexture;
     private long mColor;
     private Texture.Format mFormat = Texture.Format.RGBA8;
     private boolean mSkyboxNeedsUpdate = false;
     private boolean mUseTextureForSkybox = true;
-    private HashSet<SkyboxImageDownloadListener> mDownloadListeners = new HashSet<>();
+    private SkyboxTextureListener mTextureListener;
 
     public VRTSkyBox(ReactContext context) {
         super(context);
         mContext = context;
-        mImageDownloader = new ImageDownloader(getContext());
         mColor = COLOR_NOT_SET;
     }
 
@@ -87,17 +78,7 @@ public class VRTSkyBox extends VRTNode {
         if (mSkyboxNeedsUpdate) {
             if (mUseTextureForSkybox && mSourceMap != null) {
                 imageDownloadDidStart();
-                ReadableMapKeySetIterator iterator = mSourceMap.keySetIterator();
-                // We'll use this latch to find out when all the 6 images for the skybox have downloaded
-                CountDownLatch latch = new CountDownLatch(6);
-
-                while (iterator.hasNextKey()) {
-                    String key = iterator.nextKey();
-                    ReadableType type = mSourceMap.getType(key);
-                    if (type.name().equals(ReadableType.Map.name())) {
-                        getImageForCubeFace(key, mSourceMap.getMap(key), latch);
-                    }
-                }
+                loadCubeTexture();
             } else if (mColor != COLOR_NOT_SET) {
                 setBackgroundCubeImageColor(mColor);
             }
@@ -106,34 +87,39 @@ public class VRTSkyBox extends VRTNode {
         }
     }
 
+    private void loadCubeTexture() {
+        Uri[] faceUris = new Uri[CubeTextureLoader.FACES.length];
+        for (int i = 0; i < faceUris.length; i++) {
+            String face = CubeTextureLoader.FACES[i];
+            if (!mSourceMap.hasKey(face) || mSourceMap.getType(face) != ReadableType.Map
+                    || !mSourceMap.getMap(face).hasKey(URI_KEY)) {
+                onError("Skybox source is missing the [" + face + "] face");
+                imageDownloadDidFinish(false);
+                return;
+            }
+            faceUris[i] = Helper.parseUri(mSourceMap.getMap(face).getString(URI_KEY), getContext());
+        }
 
-    private void getImageForCubeFace(final String cubeFaceName, ReadableMap map, final CountDownLatch latch) {
-        if (map != null) {
-            SkyboxImageDownloadListener listener = new SkyboxImageDownloadListener(cubeFaceName, latch);
-            mDownloadListeners.add(listener);
-            mImageDownloader.getImageAsync(map, listener);
+        if (mTextureListener != null) {
+            mTextureListener.invalidate();
         }
+        // The six faces are decoded in parallel, and skyboxes using the same faces share one texture
+        mTextureListener = new SkyboxTextureListener();
+        mTextureListener.setLoadHandle(CubeTextureLoader.getCubeTextureAsync(faceUris, mFormat,
+                mTextureListener, getContext()));
     }
 
     @Override
     public void onTearDown() {
         super.onTearDown();
 
-        for (SkyboxImageDownloadListener listener : mDownloadListeners) {
-            listener.invalidate();
-        }
-
-        if (!mImageMap.isEmpty() && mSourceMap != null) {
-            ReadableMapKeySetIterator iterator = mSourceMap.keySetIterator();
-            while (iterator.hasNextKey()) {
-                String key = iterator.nextKey();
-                mImageMap.get(key).destroy();
-                mImageMap.remove(key);
-            }
+        if (mTextureListener != null) {
+            mTextureListener.invalidate();
+            mTextureListener = null;
         }
 
         if (mLatestTexture != null) {
-            mLatestTexture.dispose();
+            TextureCache.release(mLatestTexture);
             mLatestTexture = null;
         }
     }
@@ -142,7 +128,7 @@ public class VRTSkyBox extends VRTNode {
     public void setScene(VRTScene scene) {
         super.setScene(scene);
         if (mLatestTexture != null) {
-            setBackgroundCubeImageTexture(mLatestTexture);
+            setBackgroundCubeImageTexture(mLatestTexture.getTexture());
         } else if (mColor != COLOR_NOT_SET) {
             setBackgroundCubeImageColor(mColor);
         }
@@ -150,7 +136,6 @@ public class VRTSkyBox extends VRTNode {
 
     public void setFormat(String format) {
         mFormat = Texture.Format.forString(format);
-        mImageDownloader.setTextureFormat(mFormat);
         mSkyboxNeedsUpdate = true;
     }
 
@@ -191,20 +176,6 @@ public class VRTSkyBox extends VRTNode {
     }
 
     private void imageDownloadDidFinish(boolean success) {
-        if (mLatestTexture != null) {
-            mLatestTexture.dispose();
-        }
-
-        if (success){
-            mLatestTexture = new Texture(mImageMap.get("px"), mImageMap.get("nx"),
-                    mImageMap.get("py"), mImageMap.get("ny"),
-                    mImageMap.get("pz"), mImageMap.get("nz"));
-
-            if (mUseTextureForSkybox) {
-                setBackgroundCubeImageTexture(mLatestTexture);
-            }
-        }
-
         WritableMap event = Arguments.createMap();
         event.putBoolean("success", success);
         mContext.getJSModule(RCTEventEmitter.class).receiveEvent(
@@ -214,19 +185,20 @@ public class VRTSkyBox extends VRTNode {
         );
     }
 
-    private class SkyboxImageDownloadListener implements ImageDownloadListener {
+    private class SkyboxTextureListener implements CubeTextureLoader.Listener {
         private boolean mIsValid = true;
-        private CountDownLatch mLatch;
-        private final String mCubeFaceName;
-
-        public SkyboxImageDownloadListener(String cubeFaceName, CountDownLatch latch) {
-            mCubeFaceName = cubeFaceName;
-            mLatch = latch;
-        }
+        private CubeTextureLoader.LoadHandle mLoadHandle;
 
         public void invalidate() {
             mIsValid = false;
-            mLatch = null;
+            if (mLoadHandle != null) {
+                mLoadHandle.cancel();
+                mLoadHandle = null;
+            }
+        }
+
+        public void setLoadHandle(CubeTextureLoader.LoadHandle handle) {
+            mLoadHandle = handle;
         }
 
         @Override
@@ -235,40 +207,27 @@ public class VRTSkyBox extends VRTNode {
         }
 
         @Override
-        public void completed(Bitmap result) {
-            if (!mIsValid) {
-                return;
-            }
-
-            Image cubeFaceImage = mImageMap.get(mCubeFaceName);
-            if (cubeFaceImage != null) {
-                cubeFaceImage.destroy();
+        public void completed(TextureCache.CachedTexture result) {
+            if (mLatestTexture != null) {
+                TextureCache.release(mLatestTexture);
             }
-
-            cubeFaceImage = new Image(result, mFormat);
-            mImageMap.put(mCubeFaceName, cubeFaceImage);
-            mLatch.countDown();
-
-            if (mLatch.getCount() == 0) {
-                // All 6 skybox images finished downloading.
-                imageDownloadDidFinish(true);
-
-                if(result != null) {
-                    final int width = result.getWidth();
-                    final int height = result.getHeight();
-
-                    if(width != height) {
-                        ViroLog.error(TAG, "Width and height for skybox textures must be square, current image dimensions are (" + width + "," + height + ")");
-                    }
-                }
+            mLatestTexture = result;
+            if (mUseTextureForSkybox) {
+                setBackgroundCubeImageTexture(mLatestTexture.getTexture());
             }
 
-            mDownloadListeners.remove(this);
+            imageDownloadDidFinish(true);
+            mTextureListener = null;
         }
 
         @Override
         public void failed(String error) {
+            if (!mIsValid) {
+                return;
+            }
+            ViroLog.error(TAG, error);
             imageDownloadDidFinish(false);
+            mTextureListener = null;
         }
     }
 }
@@ -25,6 +25,7 @@ import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.facebook.common.references.CloseableReference;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
@@ -36,7 +37,6 @@ import com.viro.core.internal.ARDeclarativeNode;
 
 import com.viro.core.ARNode;
 import com.viro.core.ARScene;
-import com.viro.core.internal.Image;
 import com.viro.core.Scene;
 import com.viro.core.EventDelegate;
 
@@ -44,9 +44,11 @@ import com.viro.core.Quad;
 import com.viro.core.Texture;
 import com.viro.core.Vector;
 import com.viro.core.ViroViewARCore;
-import com.viromedia.bridge.utility.ARUtils;
-import com.viromedia.bridge.utility.ImageDownloadListener;
+import com.viromedia.bridge.utility.AnchorEventBatcher;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
+import com.viromedia.bridge.utility.PointCloudFilter;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroEvents;
 
 import java.util.EnumSet;
@@ -64,12 +66,17 @@ public class VRTARScene extends VRTScene implements ARScene.Listener {
     private static final String AMBIENT_INTENSITY_KEY = "intensity";
     private static final String AMBIENT_COLOR_KEY = "color";
     private Quad mPointCloudQuad;
+    private TextureCache.CachedTexture mPointCloudTexture;
     private PointCloudImageDownloadListener mImageDownloadListener;
+    private volatile boolean mPackedPointCloud = false;
+    private volatile PointCloudFilter mPointCloudFilter;
+    private final AnchorEventBatcher mAnchorEventBatcher;
     private Handler mMainHandler;
 
     public VRTARScene(ReactContext reactContext) {
         super(reactContext);
         mMainHandler = new Handler(Looper.getMainLooper());
+        mAnchorEventBatcher = new AnchorEventBatcher(this, ViroEvents.ON_ANCHOR_BATCH);
     }
 
     @Override
@@ -96,15 +103,53 @@ public class VRTARScene extends VRTScene implements ARScene.Listener {
                 mPointCloudQuad.dispose();
                 mPointCloudQuad = null;
             }
+            releasePointCloudTexture();
 
             return;
         }
 
+        TextureCache.Key key = TextureCache.keyFor(pointCloudImage, Texture.Format.RGBA8, false, null, 0, getContext());
+        TextureCache.CachedTexture cached = TextureCache.acquire(key);
+        if (cached != null) {
+            setPointCloudTexture(cached);
+            return;
+        }
+
         final ImageDownloader downloader = new ImageDownloader(getContext());
         downloader.setTextureFormat(Texture.Format.RGBA8);
 
-        mImageDownloadListener = new PointCloudImageDownloadListener();
-        downloader.getImageAsync(pointCloudImage, mImageDownloadListener);
+        mImageDownloadListener = new PointCloudImageDownloadListener(key);
+        mImageDownloadListener.setFetchHandle(downloader.getImageReferenceAsync(pointCloudImage, mImageDownloadListener));
+    }
+
+    private void setPointCloudTexture(TextureCache.CachedTexture cached) {
+        if (mPointCloudQuad == null) {
+            mPointCloudQuad = new Quad(1, 1);
+        }
+
+        releasePointCloudTexture();
+        mPointCloudTexture = cached;
+        mPointCloudQuad.setImageTexture(cached.getTexture());
+
+        if (!isTornDown()) {
+            ((ARScene) mNativeScene).setPointCloudQuad(mPointCloudQuad);
+        }
+    }
+
+    private void releasePointCloudTexture() {
+        if (mPointCloudTexture != null) {
+            TextureCache.release(mPointCloudTexture);
+            mPointCloudTexture = null;
+        }
+    }
+
+    @Override
+    public void onTearDown() {
+        if (mImageDownloadListener != null) {
+            mImageDownloadListener.invalidate();
+        }
+        super.onTearDown();
+        releasePointCloudTexture();
     }
 
     public void setPointCloudScale(Vector pointCloudScale) {
@@ -148,6 +193,37 @@ public class VRTARScene extends VRTScene implements ARScene.Listener {
         mEventDelegateJni.setEventEnabled(EventDelegate.EventAction.ON_AR_POINT_CLOUD_UPDATE, canARPointCloudUpdate);
     }
 
+    /**
+     * Sets the options used to filter point cloud updates before they're sent to JS (see
+     * {@link PointCloudFilter#fromMap}), or null to send every point of every update.
+     */
+    public void setPointCloudUpdateOptions(ReadableMap options) {
+        mPointCloudFilter = PointCloudFilter.fromMap(options);
+    }
+
+    public PointCloudFilter getPointCloudFilter() {
+        return mPointCloudFilter;
+    }
+
+    /**
+     * Sets the thresholds below which anchor updates aren't sent (see
+     * {@link AnchorEventBatcher#setOptions}).
+     */
+    public void setAnchorUpdateOptions(ReadableMap options) {
+        mAnchorEventBatcher.setOptions(options);
+    }
+
+    public void setPackedPointCloud(boolean packedPointCloud) {
+        mPackedPointCloud = packedPointCloud;
+    }
+
+    /**
+     * Whether point cloud updates should be sent as packed buffers rather than nested arrays.
+     */
+    public boolean isPackedPointCloud() {
+        return mPackedPointCloud;
+    }
+
     // -- ARSceneDelegate Implementation --
 
     @Override
@@ -197,42 +273,38 @@ public class VRTARScene extends VRTScene implements ARScene.Listener {
 
     @Override
     public void onAnchorFound(ARAnchor arAnchor, ARNode node) {
-        WritableMap returnMap = Arguments.createMap();
-        returnMap.putMap("anchor", ARUtils.mapFromARAnchor(arAnchor));
-
-        mReactContext.getJSModule(RCTEventEmitter.class).receiveEvent(
-            getId(),
-            ViroEvents.ON_ANCHOR_FOUND,
-            returnMap);
+        mAnchorEventBatcher.anchorFound(arAnchor);
     }
 
     @Override
     public void onAnchorUpdated(ARAnchor arAnchor, ARNode node) {
-        WritableMap returnMap = Arguments.createMap();
-        returnMap.putMap("anchor", ARUtils.mapFromARAnchor(arAnchor));
-
-        mReactContext.getJSModule(RCTEventEmitter.class).receiveEvent(
-            getId(),
-            ViroEvents.ON_ANCHOR_UPDATED,
-            returnMap);
+        mAnchorEventBatcher.anchorUpdated(arAnchor);
     }
 
     @Override
     public void onAnchorRemoved(ARAnchor arAnchor, ARNode node) {
-        WritableMap returnMap = Arguments.createMap();
-        returnMap.putMap("anchor", ARUtils.mapFromARAnchor(arAnchor));
-
-        mReactContext.getJSModule(RCTEventEmitter.class).receiveEvent(
-            getId(),
-            ViroEvents.ON_ANCHOR_REMOVED,
-            returnMap);
+        mAnchorEventBatcher.anchorRemoved(arAnchor);
     }
 
-    private class PointCloudImageDownloadListener implements ImageDownloadListener {
+    private class PointCloudImageDownloadListener implements ImageReferenceListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
+        private final TextureCache.Key mKey;
+
+        public PointCloudImageDownloadListener(TextureCache.Key key) {
+            mKey = key;
+        }
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
         }
 
         @Override
@@ -241,25 +313,17 @@ public class VRTARScene extends VRTScene implements ARScene.Listener {
         }
 
         @Override
-        public void completed(final Bitmap result) {
+        public void completed(final CloseableReference<Bitmap> result) {
             mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     if (!mIsValid) {
+                        result.close();
                         return;
                     }
 
-                    if (mPointCloudQuad == null) {
-                        mPointCloudQuad = new Quad(1, 1);
-                    }
-
-                    Image image = new Image(result, Texture.Format.RGBA8);
-                    Texture texture = new Texture(image, true, false, null);
-                    mPointCloudQuad.setImageTexture(texture);
-
-                    if (!isTornDown()) {
-                    ((ARScene) mNativeScene).setPointCloudQuad(mPointCloudQuad);
-                    }
+                    setPointCloudTexture(TextureCache.acquire(mKey, result.get()));
+                    result.close();
                 }
             });
         }
@@ -95,6 +95,21 @@ public class VRTARSceneManager extends VRTSceneManager<VRTARScene> {
         scene.setCanARPointCloudUpdate(canARPointCloudUpdate);
     }
 
+    @ReactProp(name = "pointCloudUpdateOptions")
+    public void setPointCloudUpdateOptions(VRTARScene scene, @Nullable ReadableMap options) {
+        scene.setPointCloudUpdateOptions(options);
+    }
+
+    @ReactProp(name = "anchorUpdateOptions")
+    public void setAnchorUpdateOptions(VRTARScene scene, @Nullable ReadableMap options) {
+        scene.setAnchorUpdateOptions(options);
+    }
+
+    @ReactProp(name = "packedPointCloud", defaultBoolean = false)
+    public void setPackedPointCloud(VRTARScene scene, boolean packedPointCloud) {
+        scene.setPackedPointCloud(packedPointCloud);
+    }
+
     @Override
     public Map getExportedCustomDirectEventTypeConstants() {
         Map map = super.getExportedCustomDirectEventTypeConstants();
@@ -103,6 +118,7 @@ public class VRTARSceneManager extends VRTSceneManager<VRTARScene> {
         map.put(ViroEvents.ON_ANCHOR_FOUND, MapBuilder.of("registrationName", ViroEvents.ON_ANCHOR_FOUND));
         map.put(ViroEvents.ON_ANCHOR_UPDATED, MapBuilder.of("registrationName", ViroEvents.ON_ANCHOR_UPDATED));
         map.put(ViroEvents.ON_ANCHOR_REMOVED, MapBuilder.of("registrationName", ViroEvents.ON_ANCHOR_REMOVED));
+        map.put(ViroEvents.ON_ANCHOR_BATCH, MapBuilder.of("registrationName", ViroEvents.ON_ANCHOR_BATCH));
         map.put(ViroEvents.ON_CAMERA_AR_HIT_TEST_VIRO, MapBuilder.of("registrationName", ViroEvents.ON_CAMERA_AR_HIT_TEST_VIRO));
         map.put(ViroEvents.ON_AR_POINT_CLOUD_UPDATE, MapBuilder.of("registrationName", ViroEvents.ON_AR_POINT_CLOUD_UPDATE));
         return map;
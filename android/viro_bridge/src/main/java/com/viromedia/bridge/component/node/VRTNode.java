@@ -285,6 +285,18 @@ public class VRTNode extends VRTComponent {
     protected int mShadowCastingBitMask = 1;
 
     protected List<Material> mMaterials;
+    // Names of the materials whose in-place updates we're listening to.
+    private List<String> mWatchedMaterialNames = new ArrayList<String>();
+    private final MaterialManager.MaterialUpdateListener mMaterialUpdateListener =
+            new MaterialManager.MaterialUpdateListener() {
+        @Override
+        public void onMaterialUpdated(String materialName, Material material) {
+            // Our geometry holds copies of the materials, taken before this update.
+            if (!isTornDown() && mMaterials != null && mMaterials.contains(material)) {
+                applyMaterials();
+            }
+        }
+    };
     protected EventDelegate mEventDelegateJni;
     private ComponentEventDelegate mComponentEventDelegate;
     private NodeTransformDelegate mTransformDelegate;
@@ -388,6 +400,7 @@ public class VRTNode extends VRTComponent {
             }
             
             // Clean up materials
+            watchMaterialUpdates(null);
             if (mMaterials != null) {
                 mMaterials.clear();
                 mMaterials = null;
@@ -891,6 +904,25 @@ public class VRTNode extends VRTComponent {
         }
     }
 
+    /**
+     * Listen for in-place updates of the given MaterialManager materials (textures loading,
+     * properties changing), so that they can be re-applied. Pass null to stop listening.
+     */
+    protected void watchMaterialUpdates(List<Material> materials) {
+        MaterialManager materialManager = getReactContext().getNativeModule(MaterialManager.class);
+        for (String materialName : mWatchedMaterialNames) {
+            materialManager.removeMaterialUpdateListener(materialName, mMaterialUpdateListener);
+        }
+        mWatchedMaterialNames = new ArrayList<String>();
+        if (materials == null) {
+            return;
+        }
+        for (Material material : materials) {
+            mWatchedMaterialNames.add(material.getName());
+            materialManager.addMaterialUpdateListener(material.getName(), mMaterialUpdateListener);
+        }
+    }
+
     public void setViroContext(ViroContext context) {
         super.setViroContext(context);
         // CCheck if this material has video materials. Reset the materials if we do.
@@ -921,6 +953,7 @@ public class VRTNode extends VRTComponent {
 
             if (materialsChanged) {
                 setMaterials(nativeMaterials);
+                watchMaterialUpdates(nativeMaterials);
             }
         }
 
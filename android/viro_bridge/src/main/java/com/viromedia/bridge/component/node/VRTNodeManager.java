@@ -367,6 +367,7 @@ public abstract class VRTNodeManager<T extends VRTNode> extends VRTViroViewGroup
                 }
             }
             view.setMaterials(nativeMaterials);
+            view.watchMaterialUpdates(nativeMaterials);
         } catch (Exception e) {
             ViroLog.error(TAG, "Error updating materials property: " + e.getMessage());
         }
@@ -40,6 +40,7 @@ import com.viro.core.Texture;
 import com.viro.core.Vector;
 import com.viro.core.VideoTexture;
 import com.viro.core.Renderer;
+import com.viromedia.bridge.utility.CameraTransformFilter;
 import com.viromedia.bridge.utility.Helper;
 import com.viromedia.bridge.utility.ViroEvents;
 
@@ -65,6 +66,8 @@ public class VRTScene extends VRTNode implements Scene.VisibilityListener {
     private String mHeadset;
     private String mController;
 
+    private volatile CameraTransformFilter mCameraTransformFilter;
+
     public VRTScene(ReactContext reactContext) {
         super(reactContext);
         mVisible = true; // Scenes are always visible!
@@ -157,6 +160,18 @@ public class VRTScene extends VRTNode implements Scene.VisibilityListener {
         mEventDelegateJni.setEventEnabled(EventDelegate.EventAction.ON_CAMERA_TRANSFORM_UPDATE, canCameraTransformUpdate);
     }
 
+    /**
+     * Sets the max rate and movement thresholds for camera transform updates (see
+     * {@link CameraTransformFilter#fromMap}), or null to send an update every frame.
+     */
+    public void setCameraTransformUpdateOptions(ReadableMap options) {
+        mCameraTransformFilter = CameraTransformFilter.fromMap(options);
+    }
+
+    public CameraTransformFilter getCameraTransformFilter() {
+        return mCameraTransformFilter;
+    }
+
     @Override
     public void addView(View child, int index) {
         super.addView(child, index);
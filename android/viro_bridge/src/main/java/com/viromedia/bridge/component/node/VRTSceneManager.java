@@ -76,6 +76,11 @@ public abstract class VRTSceneManager<T extends VRTScene> extends VRTViroViewGro
         scene.setCanCameraTransformUpdate(canCameraTransformUpdate);
     }
 
+    @ReactProp(name = "cameraTransformUpdateOptions")
+    public void setCameraTransformUpdateOptions(VRTScene scene, @Nullable ReadableMap options) {
+        scene.setCameraTransformUpdateOptions(options);
+    }
+
     @Override
     public Map getExportedCustomDirectEventTypeConstants() {
         Map map = MapBuilder.of(ViroEvents.ON_FUSE, MapBuilder.of("registrationName", ViroEvents.ON_FUSE));
@@ -25,10 +25,12 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.Log;
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableMap;
 import com.viro.core.AnimatedTexture;
 import com.viro.core.Texture;
 import com.viro.core.ViroContext;
 import com.viromedia.bridge.utility.Helper;
+import com.viromedia.bridge.utility.ImageDecodeScheduler;
 import com.viromedia.bridge.utility.ImageDownloadListener;
 import com.viromedia.bridge.utility.ImageDownloader;
 import com.viromedia.bridge.utility.ViroLog;
@@ -107,7 +109,9 @@ public class VRTAnimatedImage extends VRTImage {
         // before downloading/fetching the source image. Otherwise, just immediately get the source.
         if (!mIsImageSet && mPlaceholderSourceMap != null && mSourceMap != null) {
             mAnimatedImagePlaceholderListener = new AnimatedImagePlaceholderCallback(downloader);
-            downloader.getImageAsync(mPlaceholderSourceMap, mAnimatedImagePlaceholderListener);
+            downloader.setPriority(ImageDecodeScheduler.Lane.PLACEHOLDER);
+            mAnimatedImagePlaceholderListener.setFetchHandle(
+                    downloader.getImageAsync(mPlaceholderSourceMap, mAnimatedImagePlaceholderListener));
         } else {
             mPendingTextureLoad = true;
             downloadSourceImage(downloader);
@@ -168,7 +172,7 @@ public class VRTAnimatedImage extends VRTImage {
     }
 
     @Override
-    void setImageOnQuad(Bitmap image) {
+    void setImageOnQuad(Bitmap image, ReadableMap source) {
         Log.w(TAG,"Unable to set Bitmaps for AnimatedImages!");
     }
 
@@ -187,6 +191,7 @@ public class VRTAnimatedImage extends VRTImage {
      */
     class AnimatedImagePlaceholderCallback implements ImageDownloadListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
         private ImageDownloader mDownloader;
 
         public AnimatedImagePlaceholderCallback(ImageDownloader downloader) {
@@ -195,9 +200,17 @@ public class VRTAnimatedImage extends VRTImage {
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
             mDownloader = null;
         }
 
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
+        }
+
         @Override
         public boolean isValid() {
             return mIsValid;
@@ -214,7 +227,7 @@ public class VRTAnimatedImage extends VRTImage {
                     if (!isValid()) {
                         return;
                     }
-                    setImageOnQuad(result);
+                    setImageOnQuad(result, mPlaceholderSourceMap);
                     mPendingTextureLoad = true;
                     downloadSourceImage(mDownloader);
                     mAnimatedImagePlaceholderListener = null;
@@ -26,20 +26,26 @@ import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.facebook.common.references.CloseableReference;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
-import com.viro.core.internal.Image;
 import com.viro.core.Material;
 import com.viro.core.Quad;
 import com.viro.core.Texture;
-import com.viromedia.bridge.utility.ImageDownloadListener;
+import com.viromedia.bridge.utility.ImageDecodeScheduler;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
+import com.viromedia.bridge.utility.TextureAtlas;
+import com.viromedia.bridge.utility.TextureCache;
 import com.viromedia.bridge.utility.ViroEvents;
 import com.viromedia.bridge.utility.ViroLog;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static com.viromedia.bridge.component.node.VRTNodeManager.s2DUnitPer3DUnit;
+
 public class VRTImage extends VRTControl {
     private static final String TAG = ViroLog.getTag(VRTImage.class);
     static final String DEFAULT_RESIZE_MODE = "stretchToFill";
@@ -47,7 +53,9 @@ public class VRTImage extends VRTControl {
     static final float DEFAULT_WIDTH = 1;
     static final float DEFAULT_HEIGHT = 1;
     private Material mDefaultMaterial;
-    private Image mLatestImage;
+    private TextureCache.CachedTexture mLatestCachedTexture;
+    private TextureAtlas.Region mAtlasRegion;
+    private String mAtlasGroup;
     private String mStereoMode;
     private float mWidth = DEFAULT_WIDTH;
     private float mHeight = DEFAULT_HEIGHT;
@@ -63,12 +71,16 @@ public class VRTImage extends VRTControl {
     private String mImageClipMode = DEFAULT_CLIP_MODE;
     private boolean mMipmap = true;
     private Texture.Format mFormat = Texture.Format.RGBA8;
+    private int mTargetPixelSize = 0;
+    private boolean mProgressive = false;
+    private int mShownPreviewSize = 0;
 
     private boolean mGeometryNeedsUpdate = false;
     private boolean mWidthOrHeightPropSet = false;
     private boolean mResizeModeSet = false;
     private MainImageDownloadListener mMainListener;
     private PlaceholderImageDownloadListener mPlaceholderListener;
+    private List<PreviewImageDownloadListener> mPreviewListeners = new ArrayList<>();
 
     boolean mImageNeedsDownload = false;
     Quad mNativeQuad;
@@ -101,6 +113,15 @@ public class VRTImage extends VRTControl {
         mPlaceholderSourceMap = placeholderSource;
     }
 
+    public void setAtlasGroup(String atlasGroup) {
+        mAtlasGroup = atlasGroup;
+        mImageNeedsDownload = true;
+    }
+
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
+    }
+
     public void setWidth(float width) {
         mWidth = width;
         mScaledWidth = width;
@@ -139,6 +160,10 @@ public class VRTImage extends VRTControl {
     public void setMaterials(List<Material> materials) {
         // Override materials setting because we want to control which materials are set.
         mMaterials = materials;
+        if (mAtlasRegion != null && materials != null && !materials.isEmpty()) {
+            // Atlased images draw with their page's material; reload as a texture of our own
+            mImageNeedsDownload = true;
+        }
         setMaterialOnQuad();
         if (mNativeQuad != null && mLatestImageTexture != null) {
             mNativeQuad.setImageTexture(mLatestImageTexture);
@@ -154,12 +179,26 @@ public class VRTImage extends VRTControl {
 
         resizeImage();
         updateQuad();
+
+        // Fetch a sharper image if this one has grown past the size it was decoded for
+        if (mIsImageSet && mWidthOrHeightPropSet && getTargetPixelSize() > mTargetPixelSize) {
+            mImageNeedsDownload = true;
+        }
+
         if (mImageNeedsDownload) {
             updateImage();
             mImageNeedsDownload = false;
         }
     }
 
+    /**
+     * The longest edge, in pixels, worth decoding for this image given its size in the scene.
+     */
+    int getTargetPixelSize() {
+        float longestEdge = Math.max(Math.max(mWidth, mHeight), Math.max(mScaledWidth, mScaledHeight));
+        return ImageDownloader.getTargetSize(longestEdge * s2DUnitPer3DUnit);
+    }
+
     void updateQuad() {
         boolean createdNewQuad = false;
         float imageQuadWidth;
@@ -171,12 +210,22 @@ public class VRTImage extends VRTControl {
             imageQuadWidth = mScaledWidth;
             imageQuadHeight = mScaledHeight;
         }
+        // Atlased images map their texture coordinates into their region of the atlas page
+        float u0 = mU0, v0 = mV0, u1 = mU1, v1 = mV1;
+        if (mAtlasRegion != null) {
+            float regionWidth = mAtlasRegion.getU1() - mAtlasRegion.getU0();
+            float regionHeight = mAtlasRegion.getV1() - mAtlasRegion.getV0();
+            u0 = mAtlasRegion.getU0() + mU0 * regionWidth;
+            v0 = mAtlasRegion.getV0() + mV0 * regionHeight;
+            u1 = mAtlasRegion.getU0() + mU1 * regionWidth;
+            v1 = mAtlasRegion.getV0() + mV1 * regionHeight;
+        }
         if (mNativeQuad == null) {
-            mNativeQuad = new Quad(imageQuadWidth, imageQuadHeight, mU0, mV0, mU1, mV1);
+            mNativeQuad = new Quad(imageQuadWidth, imageQuadHeight, u0, v0, u1, v1);
             createdNewQuad = true;
         }
         else if (mGeometryNeedsUpdate) {
-            Quad newQuad = new Quad(imageQuadWidth, imageQuadHeight, mU0, mV0, mU1, mV1, mNativeQuad);
+            Quad newQuad = new Quad(imageQuadWidth, imageQuadHeight, u0, v0, u1, v1, mNativeQuad);
             mNativeQuad.dispose();
             mNativeQuad = newQuad;
             createdNewQuad = true;
@@ -194,12 +243,16 @@ public class VRTImage extends VRTControl {
     public void updateImage() {
         final ImageDownloader downloader = new ImageDownloader(getContext());
         downloader.setTextureFormat(mFormat);
+        mTargetPixelSize = getTargetPixelSize();
+        downloader.setTargetSize(mTargetPixelSize);
 
         // If an image isn't already set, then first fetch the placeholder (which should be on disk)
         // before downloading/fetching the source image. Otherwise, just immediately get the source.
         if (!mIsImageSet && mPlaceholderSourceMap != null && mSourceMap != null) {
             mPlaceholderListener = new PlaceholderImageDownloadListener(downloader);
-            downloader.getImageAsync(mPlaceholderSourceMap, mPlaceholderListener);
+            downloader.setPriority(ImageDecodeScheduler.Lane.PLACEHOLDER);
+            mPlaceholderListener.setFetchHandle(
+                    downloader.getImageReferenceAsync(mPlaceholderSourceMap, mPlaceholderListener));
         } else {
             downloadSourceImage(downloader);
         }
@@ -208,8 +261,28 @@ public class VRTImage extends VRTControl {
     void downloadSourceImage(ImageDownloader downloader) {
         if (mSourceMap != null) {
             imageDownloadDidStart();
+
+            if (mMainListener != null) {
+                mMainListener.invalidate();
+            }
+
+            // If another component already has this image alive, share its texture.
+            TextureCache.CachedTexture cached = TextureCache.acquire(getTextureCacheKey(mSourceMap));
+            if (cached != null) {
+                mainImageDidLoad(cached);
+                return;
+            }
+
+            // Show quicker, smaller decodes of the image while the full one loads
+            invalidatePreviewListeners();
+            mShownPreviewSize = 0;
+            if (mProgressive) {
+                downloadPreviewImages();
+            }
+
             mMainListener = new MainImageDownloadListener();
-            downloader.getImageAsync(mSourceMap, mMainListener);
+            downloader.setPriority(ImageDecodeScheduler.Lane.VISIBLE);
+            mMainListener.setFetchHandle(downloader.getImageReferenceAsync(mSourceMap, mMainListener));
         }
 
         // If no source was provided, just set the material
@@ -232,6 +305,7 @@ public class VRTImage extends VRTControl {
         if (mMainListener != null) {
             mMainListener.invalidate();
         }
+        invalidatePreviewListeners();
         super.onTearDown();
 
         if (mNativeQuad != null) {
@@ -244,15 +318,7 @@ public class VRTImage extends VRTControl {
             mDefaultMaterial = null;
         }
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
-            mLatestImage = null;
-        }
-
-        if (mLatestImageTexture != null) {
-            mLatestImageTexture.dispose();
-            mLatestImageTexture = null;
-        }
+        releaseImageTexture();
     }
 
     void setMaterialOnQuad() {
@@ -260,29 +326,157 @@ public class VRTImage extends VRTControl {
             return;
         }
         if (mMaterials == null || mMaterials.size() == 0) {
-            // set default (empty) material
-            mNativeQuad.setMaterial(mDefaultMaterial);
+            // set default (empty) material, or the atlas page's shared one
+            mNativeQuad.setMaterial(mAtlasRegion != null ? mAtlasRegion.getMaterial() : mDefaultMaterial);
         } else {
             Material nativeMaterial = mMaterials.get(0);
             mNativeQuad.setMaterial(nativeMaterial);
         }
     }
 
-    void setImageOnQuad(Bitmap image) {
+    void setImageOnQuad(Bitmap image, ReadableMap source) {
         if (mNativeQuad == null) {
             return;
         }
+        setImageOnQuad(TextureCache.acquire(getTextureCacheKey(source), image));
+    }
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
+    void setImageOnQuad(TextureCache.CachedTexture cached) {
+        if (mNativeQuad == null) {
+            TextureCache.release(cached);
+            return;
         }
+
+        boolean wasAtlased = mAtlasRegion != null;
+        releaseImageTexture();
+        if (wasAtlased) {
+            // Move off the atlas page's shared material before setting a texture of our own
+            mGeometryNeedsUpdate = true;
+            updateQuad();
+            setMaterialOnQuad();
+        }
+        mLatestCachedTexture = cached;
+        mLatestImageTexture = cached.getTexture();
+        mNativeQuad.setImageTexture(mLatestImageTexture);
+    }
+
+    void setImageOnQuad(TextureAtlas.Region region) {
+        if (mNativeQuad == null) {
+            TextureAtlas.release(region);
+            return;
+        }
+
+        releaseImageTexture();
+        mAtlasRegion = region;
+        mGeometryNeedsUpdate = true;
+        updateQuad();
+        setMaterialOnQuad();
+    }
+
+    /**
+     * Whether the given decoded image should be packed into this image's atlas group.
+     */
+    private boolean shouldUseAtlas(Bitmap bitmap) {
+        return mAtlasGroup != null && mStereoMode == null
+                && (mMaterials == null || mMaterials.isEmpty())
+                && TextureAtlas.canPack(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    TextureCache.Key getTextureCacheKey(ReadableMap source) {
+        return TextureCache.keyFor(source, mFormat, mMipmap, mStereoMode, mTargetPixelSize, getContext());
+    }
+
+    private void releaseImageTexture() {
+        if (mAtlasRegion != null) {
+            TextureAtlas.release(mAtlasRegion);
+            mAtlasRegion = null;
+        }
+
+        if (mLatestCachedTexture != null) {
+            if (mLatestImageTexture == mLatestCachedTexture.getTexture()) {
+                mLatestImageTexture = null;
+            }
+            TextureCache.release(mLatestCachedTexture);
+            mLatestCachedTexture = null;
+        }
+
+        // Textures that didn't come from the cache (e.g. animated textures) are owned by us
         if (mLatestImageTexture != null) {
             mLatestImageTexture.dispose();
+            mLatestImageTexture = null;
         }
+    }
 
-        mLatestImage = new Image(image, mFormat);
-        mLatestImageTexture = new Texture(mLatestImage, true, mMipmap, mStereoMode);
-        mNativeQuad.setImageTexture(mLatestImageTexture);
+    void mainImageDidLoad(TextureCache.CachedTexture cached) {
+        invalidatePreviewListeners();
+        mIsImageSet = true;
+        if (mShownPreviewSize > 0 && hasBitmapAspectRatio(cached.getWidth(), cached.getHeight())) {
+            // The preview already sized the geometry, so only the texture needs to be swapped
+            mBitmapWidth = cached.getWidth();
+            mBitmapHeight = cached.getHeight();
+        } else {
+            updateMainImageDimensions(cached.getWidth(), cached.getHeight());
+        }
+        mShownPreviewSize = 0;
+
+        setMaterialOnQuad();
+        setImageOnQuad(cached);
+
+        imageDownloadDidFinish();
+        mMainListener = null;
+    }
+
+    private void downloadPreviewImages() {
+        for (int previewSize : ImageDownloader.getPreviewTargetSizes(mTargetPixelSize)) {
+            ImageDownloader downloader = new ImageDownloader(getContext());
+            downloader.setTextureFormat(mFormat);
+            downloader.setTargetSize(previewSize);
+            // The smallest preview is decoded ahead of everything else
+            downloader.setPriority(mPreviewListeners.isEmpty()
+                    ? ImageDecodeScheduler.Lane.PLACEHOLDER : ImageDecodeScheduler.Lane.VISIBLE);
+
+            PreviewImageDownloadListener listener = new PreviewImageDownloadListener(previewSize);
+            mPreviewListeners.add(listener);
+            listener.setFetchHandle(downloader.getImageReferenceAsync(mSourceMap, listener));
+        }
+    }
+
+    private void invalidatePreviewListeners() {
+        for (PreviewImageDownloadListener listener : mPreviewListeners) {
+            listener.invalidate();
+        }
+        mPreviewListeners.clear();
+    }
+
+    void previewImageDidLoad(TextureCache.CachedTexture cached, int previewSize) {
+        // The first preview sizes the geometry; sharper ones only swap the texture
+        if (mShownPreviewSize == 0 || !hasBitmapAspectRatio(cached.getWidth(), cached.getHeight())) {
+            mIsImageSet = true;
+            updateMainImageDimensions(cached.getWidth(), cached.getHeight());
+            setMaterialOnQuad();
+        }
+        mShownPreviewSize = previewSize;
+        setImageOnQuad(cached);
+    }
+
+    private boolean hasBitmapAspectRatio(int width, int height) {
+        if (mBitmapWidth == 0 || mBitmapHeight == 0 || height == 0) {
+            return false;
+        }
+        // Downsampled decodes round their dimensions, so allow for that
+        float aspectRatio = (float) mBitmapWidth / (float) mBitmapHeight;
+        return Math.abs(aspectRatio - (float) width / (float) height) < aspectRatio * 0.01f;
+    }
+
+    void mainImageDidLoad(TextureAtlas.Region region) {
+        invalidatePreviewListeners();
+        mIsImageSet = true;
+        mShownPreviewSize = 0;
+        updateMainImageDimensions(region.getWidth(), region.getHeight());
+        setImageOnQuad(region);
+
+        imageDownloadDidFinish();
+        mMainListener = null;
     }
 
     void imageDownloadDidStart() {
@@ -345,10 +539,11 @@ public class VRTImage extends VRTControl {
     }
 
     /**
-     * This is the ImageDownloadListener for the placeholder image
+     * This is the ImageReferenceListener for the placeholder image
      */
-    class PlaceholderImageDownloadListener implements ImageDownloadListener {
+    class PlaceholderImageDownloadListener implements ImageReferenceListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
         private ImageDownloader mDownloader;
 
         public PlaceholderImageDownloadListener(ImageDownloader downloader) {
@@ -357,25 +552,36 @@ public class VRTImage extends VRTControl {
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
             mDownloader = null;
         }
 
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
+        }
+
         @Override
         public boolean isValid() {
             return mIsValid;
         }
 
         @Override
-        public void completed(final Bitmap result) {
+        public void completed(final CloseableReference<Bitmap> result) {
             if (!isValid()) {
+                result.close();
                 return;
             }
             mMainHandler.post(new Runnable() {
                 public void run() {
                     if (!isValid()) {
+                        result.close();
                         return;
                     }
-                    setImageOnQuad(result);
+                    setImageOnQuad(result.get(), mPlaceholderSourceMap);
+                    result.close();
                     downloadSourceImage(mDownloader);
                     mPlaceholderListener = null;
                 }
@@ -412,13 +618,27 @@ public class VRTImage extends VRTControl {
     }
 
     /**
-     * This is the ImageDownloadListener for the main source image
+     * This is the ImageReferenceListener for a smaller, preview decode of the main source image
      */
-    class MainImageDownloadListener implements ImageDownloadListener {
+    class PreviewImageDownloadListener implements ImageReferenceListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
+        private final int mPreviewSize;
+
+        public PreviewImageDownloadListener(int previewSize) {
+            mPreviewSize = previewSize;
+        }
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
         }
 
         @Override
@@ -427,22 +647,79 @@ public class VRTImage extends VRTControl {
         }
 
         @Override
-        public void completed(final Bitmap result) {
+        public void completed(final CloseableReference<Bitmap> result) {
             mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (!isValid()) {
+                    // Drop previews that arrive after a sharper one is already shown
+                    if (!isValid() || mPreviewSize <= mShownPreviewSize) {
+                        result.close();
                         return;
                     }
 
-                    mIsImageSet = true;
-                    updateMainImageDimensions(result.getWidth(), result.getHeight());
+                    TextureCache.Key key = TextureCache.keyFor(mSourceMap, mFormat, false,
+                            mStereoMode, mPreviewSize, getContext());
+                    TextureCache.CachedTexture cached = TextureCache.acquire(key, result.get());
+                    result.close();
+                    mPreviewListeners.remove(PreviewImageDownloadListener.this);
+                    previewImageDidLoad(cached, mPreviewSize);
+                }
+            });
+        }
+
+        @Override
+        public void failed(String error) {
+            // The main image reports its own errors; a missing preview just isn't shown
+            ViroLog.debug(TAG, "Unable to load preview image: " + error);
+        }
+    }
+
+    /**
+     * This is the ImageReferenceListener for the main source image
+     */
+    class MainImageDownloadListener implements ImageReferenceListener {
+        private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
+
+        public void invalidate() {
+            mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
+        }
+
+        @Override
+        public boolean isValid() {
+            return mIsValid;
+        }
+
+        @Override
+        public void completed(final CloseableReference<Bitmap> result) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isValid()) {
+                        result.close();
+                        return;
+                    }
 
-                    setMaterialOnQuad();
-                    setImageOnQuad(result);
+                    if (shouldUseAtlas(result.get())) {
+                        TextureAtlas.Region region = TextureAtlas.acquire(mAtlasGroup,
+                                getTextureCacheKey(mSourceMap).toString(), result.get(), mFormat);
+                        result.close();
+                        mainImageDidLoad(region);
+                        return;
+                    }
 
-                    imageDownloadDidFinish();
-                    mMainListener = null;
+                    TextureCache.CachedTexture cached =
+                            TextureCache.acquire(getTextureCacheKey(mSourceMap), result.get());
+                    result.close();
+                    mainImageDidLoad(cached);
                 }
             });
         }
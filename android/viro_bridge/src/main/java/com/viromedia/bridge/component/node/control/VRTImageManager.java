@@ -84,6 +84,12 @@ public class VRTImageManager extends VRTControlManager<VRTImage> {
     @ReactProp(name = "format")
     public void setFormat(VRTImage view, String format) { view.setFormat(format); }
 
+    @ReactProp(name = "atlasGroup")
+    public void setAtlasGroup(VRTImage view, String atlasGroup) { view.setAtlasGroup(atlasGroup); }
+
+    @ReactProp(name = "progressive", defaultBoolean = false)
+    public void setProgressive(VRTImage view, boolean progressive) { view.setProgressive(progressive); }
+
     @ReactProp(name = "stereoMode")
     public void setStereoMode(VRTImage view, String mode) { view.setStereoMode(mode); }
 
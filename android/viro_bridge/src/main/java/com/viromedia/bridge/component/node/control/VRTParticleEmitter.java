@@ -26,10 +26,10 @@ import android.graphics.Color;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.facebook.common.references.CloseableReference;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
-import com.viro.core.internal.Image;
 import com.viro.core.Material;
 import com.viro.core.Node;
 import com.viro.core.ParticleEmitter;
@@ -38,8 +38,9 @@ import com.viro.core.ViroContext;
 import com.viro.core.Quad;
 import com.viro.core.Texture;
 import com.viromedia.bridge.component.node.VRTScene;
-import com.viromedia.bridge.utility.ImageDownloadListener;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
+import com.viromedia.bridge.utility.TextureCache;
 
 import java.util.ArrayList;
 
@@ -73,8 +74,7 @@ public class VRTParticleEmitter extends VRTControl {
     // Components tracking the loaded image for particles in this emitter.
     private ReadableMap mImage = null;
     private String mCurrentImageUri = null;
-    private Image mLatestImage;
-    private Texture mLatestTexture;
+    private TextureCache.CachedTexture mLatestTexture;
 
     // Components that download the particle's image.
     private Handler mMainHandler;
@@ -127,13 +127,8 @@ public class VRTParticleEmitter extends VRTControl {
 
         super.onTearDown();
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
-            mLatestImage = null;
-        }
-
         if (mLatestTexture != null) {
-            mLatestTexture.dispose();
+            TextureCache.release(mLatestTexture);
             mLatestTexture = null;
         }
     }
@@ -267,10 +262,21 @@ public class VRTParticleEmitter extends VRTControl {
 
         mCurrentImageUri = imageUri;
 
+        TextureCache.Key key = getTextureCacheKey(imageMap);
+        TextureCache.CachedTexture cached = TextureCache.acquire(key);
+        if (cached != null) {
+            if (mImageDownloadListener != null) {
+                mImageDownloadListener.invalidate();
+                mImageDownloadListener = null;
+            }
+            setLatestTexture(cached);
+            return;
+        }
+
         final ImageDownloader downloader = new ImageDownloader(getContext());
         if (mCurrentImageUri != null){
-            mImageDownloadListener = new ImageParticleDownloadListener();
-            downloader.getImageAsync(imageMap, mImageDownloadListener);
+            mImageDownloadListener = new ImageParticleDownloadListener(key);
+            mImageDownloadListener.setFetchHandle(downloader.getImageReferenceAsync(imageMap, mImageDownloadListener));
         } else {
             mImageDownloadListener.invalidate();
             mImageDownloadListener = null;
@@ -287,28 +293,30 @@ public class VRTParticleEmitter extends VRTControl {
         mNativeQuad.setWidth((float)width);
         mNativeQuad.setHeight((float)height);
         if (mLatestTexture != null){
-            mNativeQuad.setImageTexture(mLatestTexture);
+            mNativeQuad.setImageTexture(mLatestTexture.getTexture());
         }
 
         mImageNeedsUpdate = false;
     }
 
-    private void imageDownloadDidFinish(Bitmap result) {
-        if (isTornDown()){
-            return;
-        }
+    private TextureCache.Key getTextureCacheKey(ReadableMap imageMap) {
+        return TextureCache.keyFor(imageMap, Texture.Format.RGBA8, false, null, 0, getContext());
+    }
 
-        if (mLatestImage != null) {
-            mLatestImage.destroy();
+    private void setLatestTexture(TextureCache.CachedTexture cached) {
+        if (mLatestTexture != null) {
+            TextureCache.release(mLatestTexture);
         }
+        mLatestTexture = cached;
+        mImageNeedsUpdate = true;
+    }
 
-        if (mLatestTexture != null) {
-            mLatestTexture.dispose();
+    private void imageDownloadDidFinish(Bitmap result, TextureCache.Key key) {
+        if (isTornDown()){
+            return;
         }
 
-        mImageNeedsUpdate = true;
-        mLatestImage = new Image(result, Texture.Format.RGBA8);
-        mLatestTexture = new Texture(mLatestImage, true, false, null);
+        setLatestTexture(TextureCache.acquire(key, result));
 
         mImageDownloadListener.invalidate();
         mImageDownloadListener = null;
@@ -719,11 +727,25 @@ public class VRTParticleEmitter extends VRTControl {
         return new float[]{0,0,0};
     }
 
-    private class ImageParticleDownloadListener implements ImageDownloadListener {
+    private class ImageParticleDownloadListener implements ImageReferenceListener {
         private boolean mIsValid = true;
+        private ImageDownloader.FetchHandle mFetchHandle;
+        private final TextureCache.Key mKey;
+
+        public ImageParticleDownloadListener(TextureCache.Key key) {
+            mKey = key;
+        }
 
         public void invalidate() {
             mIsValid = false;
+            if (mFetchHandle != null) {
+                mFetchHandle.cancel();
+                mFetchHandle = null;
+            }
+        }
+
+        public void setFetchHandle(ImageDownloader.FetchHandle handle) {
+            mFetchHandle = handle;
         }
 
         @Override
@@ -732,13 +754,15 @@ public class VRTParticleEmitter extends VRTControl {
         }
 
         @Override
-        public void completed(final Bitmap result) {
+        public void completed(final CloseableReference<Bitmap> result) {
             mMainHandler.post(new Runnable() {
                 public void run() {
                     if (!isValid()) {
+                        result.close();
                         return;
                     }
-                    imageDownloadDidFinish(result);
+                    imageDownloadDidFinish(result.get(), mKey);
+                    result.close();
                 }
             });
         }
@@ -21,11 +21,15 @@
 
 package com.viromedia.bridge.module;
 
-import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
 import android.os.Handler;
 import android.util.Log;
 
+import com.facebook.common.references.CloseableReference;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
@@ -33,14 +37,27 @@ import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.module.annotations.ReactModule;
 import com.viro.core.ARImageTarget;
-import com.viromedia.bridge.utility.ImageDownloadListener;
+import com.viromedia.bridge.utility.ARTargetStore;
+import com.viromedia.bridge.utility.DecodedImageDiskCache;
+import com.viromedia.bridge.utility.Helper;
+import com.viromedia.bridge.utility.ImageDecodeScheduler;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @ReactModule(name = "VRTARTrackingTargetsModule")
 public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
+    // ARCore extracts features from target images at around this resolution; larger sources only
+    // cost memory and time, so they're decoded down to it.
+    private static final int TARGET_IMAGE_SIZE = 640;
+    private static final int MAX_CONCURRENT_TARGET_FETCHES = 4;
 
     public interface ARTargetPromiseListener {
         void onComplete(String key, ARImageTarget target);
@@ -62,8 +79,10 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
         private final ARImageTarget.Orientation mOrientation;
         private final float mPhysicalWidth;
         private ARImageTarget mARImageTarget;
-        private ArrayList<ARTargetPromiseListener> mPromiseListeners;
+        // Guarded by the promise itself, along with mARImageTarget and mReady.
+        private final ArrayList<ARTargetPromiseListener> mPromiseListeners;
         private boolean mReady;
+        private TargetSet mTargetSet;
 
         public ARTargetPromise(String key, ReadableMap source,
                                ARImageTarget.Orientation orientation, float physicalWidth) {
@@ -76,46 +95,106 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
         }
 
         /**
-         * This method should be called only once and immediately after it is set.
+         * This method should be called only once, through {@link #enqueueFetch}.
          */
-        private void fetch(Context context) {
-            if (mARImageTarget != null) {
-                return;
+        private void fetch() {
+            synchronized (this) {
+                if (mReady) {
+                    fetchDidFinish();
+                    return;
+                }
             }
 
-            ImageDownloader downloader = new ImageDownloader(context);
-            downloader.getImageAsync(mSource, new ImageDownloadListener() {
+            mTargetDownloader.getImageReferenceAsync(mSource, new ImageReferenceListener() {
                 @Override
                 public boolean isValid() {
                     return true;
                 }
 
                 @Override
-                public void completed(Bitmap result) {
-                    mARImageTarget = new ARImageTarget(result, mOrientation, mPhysicalWidth);
-
-                    synchronized(this) {
-                        mReady = true;
-                    }
+                public void completed(CloseableReference<Bitmap> result) {
+                    // The grayscale copy is all we keep; the decoded bitmap goes back to Fresco
+                    Bitmap image = toGrayscale(result.get());
+                    result.close();
 
-                    for (ARTargetPromiseListener listener : mPromiseListeners) {
-                        listener.onComplete(mKey, mARImageTarget);
+                    targetDidLoad(image);
+                    TargetSet targetSet = takeTargetSet();
+                    if (targetSet != null) {
+                        targetSet.targetDidDownload(mKey, image);
                     }
+                    fetchDidFinish();
                 }
 
                 @Override
                 public void failed(String error) {
-                    String errorMessage = "Failed to download source for target: [" + mKey
-                            + "], error:\n" + error;
-                    Log.e("ARTrackingTargetsModule", errorMessage);
-                    for (ARTargetPromiseListener listener : mPromiseListeners) {
-                        listener.onError(new IllegalStateException(errorMessage));
+                    targetDidFail("Failed to download source for target: [" + mKey
+                            + "], error:\n" + error);
+                    TargetSet targetSet = takeTargetSet();
+                    if (targetSet != null) {
+                        targetSet.targetDidFail();
                     }
-                    mPromiseListeners = new ArrayList<>();
+                    fetchDidFinish();
                 }
             });
+        }
+
+        /**
+         * Returns the set this target is being downloaded for, and forgets it, so that the set's
+         * images aren't kept alive through sPromiseMap.
+         */
+        private synchronized TargetSet takeTargetSet() {
+            TargetSet targetSet = mTargetSet;
+            mTargetSet = null;
+            return targetSet;
+        }
+
+        private void targetDidLoad(Bitmap image) {
+            ARImageTarget target = new ARImageTarget(image, mOrientation, mPhysicalWidth);
+
+            List<ARTargetPromiseListener> listeners;
+            synchronized (this) {
+                mARImageTarget = target;
+                mReady = true;
+                listeners = new ArrayList<>(mPromiseListeners);
+                mPromiseListeners.clear();
+            }
+
+            for (ARTargetPromiseListener listener : listeners) {
+                listener.onComplete(mKey, target);
+            }
+        }
+
+        private void targetDidFail(String errorMessage) {
+            Log.e("ARTrackingTargetsModule", errorMessage);
+
+            List<ARTargetPromiseListener> listeners;
+            synchronized (this) {
+                listeners = new ArrayList<>(mPromiseListeners);
+                mPromiseListeners.clear();
+            }
 
-            // fetch image, create ImageTarget and return if there was a listener.
+            for (ARTargetPromiseListener listener : listeners) {
+                listener.onError(new IllegalStateException(errorMessage));
+            }
+        }
+
+        /**
+         * Describes everything that affects this target's image, for keying the stored set, or
+         * returns null if the source can change without us knowing (e.g. a remote image), in
+         * which case the set can't be stored.
+         */
+        private String describe() {
+            if (!mSource.hasKey("uri")) {
+                return null;
+            }
+            String uri = mSource.getString("uri");
+            String sourceVersion = DecodedImageDiskCache.getSourceVersion(getReactApplicationContext(),
+                    Helper.parseUri(uri, getReactApplicationContext()));
+            if (sourceVersion == null) {
+                return null;
+            }
+            return mKey + "|" + uri + "|" + sourceVersion + "|" + mOrientation + "|" + mPhysicalWidth
+                    + "|" + TARGET_IMAGE_SIZE;
         }
 
         public void wait(final ARTargetPromiseListener listener) {
@@ -138,6 +217,58 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
 
     }
 
+    /**
+     * The targets created by one createTargets call. Once every target downloaded, their images
+     * are written to the {@link ARTargetStore} so that the next session creating the same set can
+     * skip the downloads and decodes. Sets with a target that failed to download aren't stored.
+     */
+    private static class TargetSet {
+        private final String mSetKey;
+        private final ARTargetStore mStore;
+        // Guarded by the set itself, along with mRemaining and mFailed.
+        private Map<String, Bitmap> mImages = new HashMap<>();
+        private int mRemaining;
+        private boolean mFailed = false;
+
+        private TargetSet(String setKey, ARTargetStore store, int count) {
+            mSetKey = setKey;
+            mStore = store;
+            mRemaining = count;
+        }
+
+        private void targetDidDownload(String key, Bitmap image) {
+            synchronized (this) {
+                if (!mFailed) {
+                    mImages.put(key, image);
+                }
+            }
+            targetDidFinish();
+        }
+
+        private void targetDidFail() {
+            synchronized (this) {
+                mFailed = true;
+                // The set won't be stored, so there's no need to hold on to the other images
+                mImages.clear();
+            }
+            targetDidFinish();
+        }
+
+        private void targetDidFinish() {
+            Map<String, Bitmap> images;
+            synchronized (this) {
+                mRemaining--;
+                if (mRemaining > 0 || mFailed) {
+                    return;
+                }
+                // Hand the images over to the store, which only keeps them until they're written
+                images = mImages;
+                mImages = new HashMap<>();
+            }
+            mStore.saveAsync(mSetKey, images);
+        }
+    }
+
     /*
      TODO: change this back to non-static. Required for VIRO-3474.
      */
@@ -146,8 +277,16 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
         sPromiseMap = new HashMap<>();
     }
 
+    private final ImageDownloader mTargetDownloader;
+    // Downloads waiting for a slot, guarding mActiveFetches as well.
+    private final ArrayDeque<ARTargetPromise> mPendingFetches = new ArrayDeque<>();
+    private int mActiveFetches = 0;
+
     public ARTrackingTargetsModule(ReactApplicationContext reactContext) {
         super(reactContext);
+        mTargetDownloader = new ImageDownloader(reactContext);
+        mTargetDownloader.setPriority(ImageDecodeScheduler.Lane.AR_TARGET);
+        mTargetDownloader.setTargetSize(TARGET_IMAGE_SIZE);
     }
 
     @Override
@@ -157,6 +296,7 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void createTargets(final ReadableMap targetsMap) {
+        List<ARTargetPromise> promises = new ArrayList<>();
         ReadableMapKeySetIterator iter = targetsMap.keySetIterator();
         while (iter.hasNextKey()) {
             String key = iter.nextKey();
@@ -194,10 +334,113 @@ public class ARTrackingTargetsModule extends ReactContextBaseJavaModule {
             ReadableMap source = targetMap.getMap("source");
 
             ARTargetPromise promise = new ARTargetPromise(key, source, orientation, physicalWidth);
-            promise.fetch(getReactApplicationContext());
-
+            promises.add(promise);
             sPromiseMap.put(key, promise);
         }
+
+        if (!promises.isEmpty()) {
+            loadTargets(promises);
+        }
+    }
+
+    /**
+     * Creates the given targets from the stored set if a previous session stored this exact set,
+     * otherwise downloads them and stores the set once they're all in. Sets with a source that
+     * isn't a versioned local one are always downloaded and never stored.
+     */
+    private void loadTargets(final List<ARTargetPromise> promises) {
+        Collections.sort(promises, new Comparator<ARTargetPromise>() {
+            @Override
+            public int compare(ARTargetPromise a, ARTargetPromise b) {
+                return a.mKey.compareTo(b.mKey);
+            }
+        });
+        StringBuilder description = new StringBuilder();
+        for (ARTargetPromise promise : promises) {
+            String targetDescription = promise.describe();
+            if (targetDescription == null) {
+                // The stored set could go stale without us knowing, so don't use one
+                for (ARTargetPromise unstoredPromise : promises) {
+                    enqueueFetch(unstoredPromise);
+                }
+                return;
+            }
+            description.append(targetDescription).append('\n');
+        }
+
+        final ARTargetStore store = ARTargetStore.getInstance(getReactApplicationContext());
+        final String setKey = ARTargetStore.getSetKey(description.toString());
+        store.loadAsync(setKey, new ARTargetStore.LoadListener() {
+            @Override
+            public void completed(Map<String, Bitmap> images) {
+                if (images != null && images.size() == promises.size()) {
+                    for (ARTargetPromise promise : promises) {
+                        Bitmap image = images.get(promise.mKey);
+                        if (image != null) {
+                            promise.targetDidLoad(image);
+                        } else {
+                            enqueueFetch(promise);
+                        }
+                    }
+                    return;
+                }
+
+                TargetSet targetSet = new TargetSet(setKey, store, promises.size());
+                for (ARTargetPromise promise : promises) {
+                    synchronized (promise) {
+                        promise.mTargetSet = targetSet;
+                    }
+                    enqueueFetch(promise);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the given target's download, starting it right away if fewer than
+     * MAX_CONCURRENT_TARGET_FETCHES downloads are in progress. Bounding this keeps a large target
+     * set from holding every full resolution source in memory at once.
+     */
+    private void enqueueFetch(ARTargetPromise promise) {
+        synchronized (mPendingFetches) {
+            mPendingFetches.add(promise);
+        }
+        startPendingFetches();
+    }
+
+    private void fetchDidFinish() {
+        synchronized (mPendingFetches) {
+            mActiveFetches--;
+        }
+        startPendingFetches();
+    }
+
+    private void startPendingFetches() {
+        while (true) {
+            ARTargetPromise promise;
+            synchronized (mPendingFetches) {
+                if (mActiveFetches >= MAX_CONCURRENT_TARGET_FETCHES || mPendingFetches.isEmpty()) {
+                    return;
+                }
+                promise = mPendingFetches.poll();
+                mActiveFetches++;
+            }
+            promise.fetch();
+        }
+    }
+
+    /**
+     * ARCore only uses the luminance of target images, so they're stored and handed to it as
+     * grayscale.
+     */
+    private static Bitmap toGrayscale(Bitmap source) {
+        Bitmap gray = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        new Canvas(gray).drawBitmap(source, 0, 0, paint);
+        return gray;
     }
 
     @ReactMethod
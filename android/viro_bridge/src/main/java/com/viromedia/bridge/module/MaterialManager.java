@@ -25,8 +25,12 @@ package com.viromedia.bridge.module;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.facebook.common.references.CloseableReference;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
@@ -42,16 +46,24 @@ import com.viro.core.Texture;
 import com.viromedia.bridge.component.VRTMaterialVideo;
 import com.viromedia.bridge.utility.Helper;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.ImageReferenceListener;
+import com.viromedia.bridge.utility.TextureCache;
+import com.viromedia.bridge.utility.ViroLog;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 @ReactModule(name = "VRTMaterialManager")
 public class MaterialManager extends ReactContextBaseJavaModule {
+    private static final String TAG = ViroLog.getTag(MaterialManager.class);
 
     // TODO: figure out a good place to load the libraries.
     static {
@@ -60,17 +72,27 @@ public class MaterialManager extends ReactContextBaseJavaModule {
 
     // TODO: make the following non-static!
     /*
-     The following two static Maps and the clearMaterials function are a result of VIRO-3474, which
+     The following static Maps and the clearMaterials function are a result of VIRO-3474, which
      is caused by a React Native bug, if/when they fix it, we need to revert the maps back to instance
      variables.
      */
     private static Map<String, MaterialWrapper> sMaterialsMap;
-    private static Map<String, Image> sImageMap;
+    // Textures shared between materials, keyed by their source and sampling parameters. Guarded
+    // by sTextureLock, as textures finish loading on the image decode threads.
+    private static Map<TextureKey, SharedTexture> sTextureMap;
+    private static final Object sTextureLock = new Object();
     private static Map<String, WeakReference<MaterialChangeListener>> sMaterialChangeListeners;
+    // Components to notify when a material they use changes in place (a texture landed on it
+    // or its properties were updated). Only accessed on the main thread.
+    private static Map<String, Set<MaterialUpdateListener>> sMaterialUpdateListeners;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
     public void clearMaterials() {
         sMaterialsMap = new HashMap<>();
-        sImageMap = new HashMap<>();
+        synchronized (sTextureLock) {
+            sTextureMap = new HashMap<>();
+        }
         sMaterialChangeListeners = new HashMap<>();
+        sMaterialUpdateListeners = new HashMap<>();
     }
 
     private final ReactApplicationContext mContext;
@@ -80,8 +102,11 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         super(reactContext);
         mContext = reactContext;
         sMaterialsMap = new HashMap<String, MaterialWrapper>();
-        sImageMap = new HashMap<String, Image>();
+        synchronized (sTextureLock) {
+            sTextureMap = new HashMap<TextureKey, SharedTexture>();
+        }
         sMaterialChangeListeners = new HashMap<String, WeakReference<MaterialChangeListener>>();
+        sMaterialUpdateListeners = new HashMap<String, Set<MaterialUpdateListener>>();
     }
 
     // https://stackoverflow.com/a/44879687
@@ -96,9 +121,9 @@ public class MaterialManager extends ReactContextBaseJavaModule {
     }
 
     public Material getMaterial(String name) {
-        reloadMaterials();
-        if (sMaterialsMap.containsKey(name)) {
-            return sMaterialsMap.get(name).getNativeMaterial();
+        MaterialWrapper materialWrapper = getMaterialWrapper(name);
+        if (materialWrapper != null) {
+            return materialWrapper.getNativeMaterial();
         }
         return null;
     }
@@ -106,7 +131,9 @@ public class MaterialManager extends ReactContextBaseJavaModule {
     public MaterialWrapper getMaterialWrapper(String name) {
         reloadMaterials();
         if (sMaterialsMap.containsKey(name)) {
-            return sMaterialsMap.get(name);
+            MaterialWrapper materialWrapper = sMaterialsMap.get(name);
+            materialWrapper.recreateIfStale();
+            return materialWrapper;
         }
         return null;
     }
@@ -129,13 +156,19 @@ public class MaterialManager extends ReactContextBaseJavaModule {
     }
 
     /**
-     * This function goes through every material and reloads the material
+     * This function marks every material as needing to be reloaded. Each material is then
+     * recreated the next time it is requested, so materials that are no longer used by the
+     * new renderer are never rebuilt.
      */
     public void reloadMaterials() {
         if (mShouldReload) {
-            for (String key : sMaterialsMap.keySet()) {
-                MaterialWrapper material = sMaterialsMap.get(key);
-                material.recreate();
+            // The shared textures belong to the previous renderer. Stop handing them out; each
+            // is still released by its materials as they're recreated or deleted.
+            synchronized (sTextureLock) {
+                sTextureMap = new HashMap<TextureKey, SharedTexture>();
+            }
+            for (MaterialWrapper material : sMaterialsMap.values()) {
+                material.mStale = true;
             }
             mShouldReload = false;
         }
@@ -145,9 +178,57 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         sMaterialChangeListeners.put(name, new WeakReference<MaterialChangeListener>(listener));
     }
 
+    /**
+     * Registers the given listener to be notified on the main thread whenever the named material
+     * changes in place. Listeners are held weakly.
+     */
+    public void addMaterialUpdateListener(String name, MaterialUpdateListener listener) {
+        Set<MaterialUpdateListener> listeners = sMaterialUpdateListeners.get(name);
+        if (listeners == null) {
+            listeners = Collections.newSetFromMap(new WeakHashMap<MaterialUpdateListener, Boolean>());
+            sMaterialUpdateListeners.put(name, listeners);
+        }
+        listeners.add(listener);
+    }
+
+    public void removeMaterialUpdateListener(String name, MaterialUpdateListener listener) {
+        Set<MaterialUpdateListener> listeners = sMaterialUpdateListeners.get(name);
+        if (listeners != null) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                sMaterialUpdateListeners.remove(name);
+            }
+        }
+    }
+
+    private static void notifyMaterialUpdated(final String materialName, final Material material) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Set<MaterialUpdateListener> listeners = sMaterialUpdateListeners.get(materialName);
+                if (listeners == null) {
+                    return;
+                }
+                for (MaterialUpdateListener listener : new ArrayList<MaterialUpdateListener>(listeners)) {
+                    listener.onMaterialUpdated(materialName, material);
+                }
+            }
+        });
+    }
+
     @ReactMethod
     public void setJSMaterials(ReadableMap newMaterials) {
-        loadMaterials(newMaterials);
+        loadMaterials(newMaterials, null);
+    }
+
+    /**
+     * Same as setJSMaterials, but the given promise is resolved once the textures of every
+     * material in the batch have finished loading. Materials are usable before then, they
+     * simply render without their textures until those arrive.
+     */
+    @ReactMethod
+    public void loadJSMaterials(ReadableMap newMaterials, Promise promise) {
+        loadMaterials(newMaterials, new MaterialBatch(promise));
     }
 
     @ReactMethod
@@ -156,28 +237,109 @@ public class MaterialManager extends ReactContextBaseJavaModule {
             String materialName = materials.getString(i);
             if (sMaterialsMap.containsKey(materialName)) {
                 // we need to delete the native ref before we remove the material
-                sMaterialsMap.get(materialName).getNativeMaterial().dispose();
-                sMaterialsMap.remove(materialName);
+                MaterialWrapper materialWrapper = sMaterialsMap.remove(materialName);
+                materialWrapper.disposeNativeMaterial();
+                releaseTextures(materialWrapper.takeTextures());
             }
         }
     }
 
-    private void loadMaterials(ReadableMap newMaterials) {
+    private void loadMaterials(ReadableMap newMaterials, MaterialBatch batch) {
         ReadableMapKeySetIterator iter = newMaterials.keySetIterator();
         while (iter.hasNextKey()) {
             String key = iter.nextKey();
             ReadableMap material = newMaterials.getMap(key);
-            MaterialWrapper materialWrapper = createMaterial(key, material);
-            sMaterialsMap.put(key, materialWrapper);
+
+            MaterialWrapper existing = sMaterialsMap.get(key);
+            if (existing != null && !existing.mStale && updateMaterial(existing, material)) {
+                continue;
+            }
+
+            MaterialWrapper materialWrapper = new MaterialWrapper(key, material);
+            createMaterial(materialWrapper, null, batch);
+            MaterialWrapper previous = sMaterialsMap.put(key, materialWrapper);
+            if (previous != null) {
+                // The previous material may still be set on components, which hold their own
+                // native references to its textures; we only drop our shared ones.
+                releaseTextures(previous.takeTextures());
+            }
+        }
+
+        if (batch != null) {
+            batch.seal();
+        }
+    }
+
+    /**
+     * Brings the existing material up to date with the given source without rebuilding it, if
+     * that is possible: either nothing changed, or only scalar properties that can be set on
+     * the native material in place, in which case the components using it are notified to
+     * re-apply it.
+     *
+     * @return true if the material is up to date, false if it has to be rebuilt.
+     */
+    private boolean updateMaterial(MaterialWrapper materialWrapper, ReadableMap newSource) {
+        Map<String, Object> previous = materialWrapper.mMaterialSource.toHashMap();
+        Map<String, Object> next = newSource.toHashMap();
+        if (!previous.keySet().equals(next.keySet())) {
+            return false;
+        }
+
+        List<String> changedProperties = new ArrayList<String>();
+        for (Map.Entry<String, Object> property : next.entrySet()) {
+            if (Objects.equals(property.getValue(), previous.get(property.getKey()))) {
+                continue;
+            }
+            if (!isScalarProperty(property.getKey())) {
+                return false;
+            }
+            changedProperties.add(property.getKey());
+        }
+
+        Material material = materialWrapper.getNativeMaterial();
+        if (material == null) {
+            return false;
+        }
+        for (String property : changedProperties) {
+            if ("diffuseColor".equalsIgnoreCase(property)) {
+                material.setDiffuseColor(newSource.getInt(property));
+            } else if ("shininess".equalsIgnoreCase(property)) {
+                material.setShininess((float) newSource.getDouble(property));
+            } else if ("bloomThreshold".equalsIgnoreCase(property)) {
+                material.setBloomThreshold((float) newSource.getDouble(property));
+            } else if (PBRProperties.METALNESS.key.equalsIgnoreCase(property)) {
+                PBRProperties.METALNESS.setPropertyForMaterial(material, (float) newSource.getDouble(property));
+            } else if (PBRProperties.ROUGHNESS.key.equalsIgnoreCase(property)) {
+                PBRProperties.ROUGHNESS.setPropertyForMaterial(material, (float) newSource.getDouble(property));
+            }
+        }
+        materialWrapper.mMaterialSource = newSource;
+        if (!changedProperties.isEmpty()) {
+            // Components hold copies of the material; have them take the new values.
+            notifyMaterialUpdated(materialWrapper.mMaterialName, material);
         }
+        return true;
     }
 
-    private MaterialWrapper createMaterial(String materialName, ReadableMap materialMap) {
-        return createMaterial(materialName, materialMap, null);
+    private boolean isScalarProperty(String property) {
+        return "diffuseColor".equalsIgnoreCase(property)
+                || "shininess".equalsIgnoreCase(property)
+                || "bloomThreshold".equalsIgnoreCase(property)
+                || PBRProperties.METALNESS.key.equalsIgnoreCase(property)
+                || PBRProperties.ROUGHNESS.key.equalsIgnoreCase(property);
     }
 
-    private MaterialWrapper createMaterial(String materialName, ReadableMap materialMap, VideoTexture videoTexture) {
-        MaterialWrapper materialWrapper = new MaterialWrapper(materialName, materialMap);
+    /**
+     * Creates the native material for the given wrapper from its source map. The material is
+     * set on the wrapper immediately; its image textures are fetched in parallel and set on
+     * the material as each one arrives, after which MaterialUpdateListeners are notified so
+     * that components holding copies of the material can pick the texture up.
+     */
+    private void createMaterial(MaterialWrapper materialWrapper, VideoTexture videoTexture,
+                                MaterialBatch batch) {
+        final String materialName = materialWrapper.mMaterialName;
+        final ReadableMap materialMap = materialWrapper.mMaterialSource;
+        List<TextureLoad> textureLoads = new ArrayList<TextureLoad>();
 
         // These defaults match those in the JNI's Material.java
         Material.LightingModel lightingModel = Material.LightingModel.CONSTANT;
@@ -186,10 +348,8 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         boolean chromaFilteringEnabled = false;
         Texture diffuseTexture = null;
         float diffuseIntensity = 1.0f;
-        Texture specularTexture = null;
         float shininess = 2.0f;
         float fresnelExponent = 1.0f;
-        Texture normalMap = null;
         Material.CullMode cullMode = Material.CullMode.BACK;
         Material.TransparencyMode transparencyMode= Material.TransparencyMode.A_ONE;
         Material.BlendMode blendMode = Material.BlendMode.ALPHA;
@@ -215,7 +375,6 @@ public class MaterialManager extends ReactContextBaseJavaModule {
 
             if (materialPropertyName.endsWith("texture") || materialPropertyName.endsWith("Texture")) {
                 if (materialPropertyName.equalsIgnoreCase("reflectiveTexture")) {
-                    Texture nativeTexture = createTextureCubeMap(materialMap.getMap(materialPropertyName), Texture.Format.RGBA8);
                     // TODO Reflective texture are unsupported currently
                     continue;
                 }
@@ -232,44 +391,13 @@ public class MaterialManager extends ReactContextBaseJavaModule {
                         materialWrapper.addVideoTexturePath(materialPropertyName, uri);
                         diffuseTexture = videoTexture;
                     } else {
-                        if (sImageMap.get(materialPropertyName) != null) {
-                            Texture texture = parseTexture(sImageMap.get(materialPropertyName), sRGB, mipmap,
-                                    materialPropertyName, materialMap);
-                            if (materialPropertyName.equalsIgnoreCase("diffuseTexture")) {
-                                diffuseTexture = texture;
-                            }
-                            else if (materialPropertyName.equalsIgnoreCase("specularTexture")) {
-                                specularTexture = texture;
-                            }
-                            else if (materialPropertyName.equalsIgnoreCase("normalTexture")) {
-                                normalMap = texture;
-                            }
-                            else {
-                                throw new IllegalArgumentException("Invalid texture property received: " + materialPropertyName);
-                            }
-                        } else {
-                            ImageDownloader downloader = new ImageDownloader(mContext);
-                            downloader.setTextureFormat(format);
-
-                            Bitmap imageBitmap = downloader.getImageSync(uri);
-                            if (imageBitmap != null) {
-                                Image nativeImage = new Image(imageBitmap, format);
-                                Texture texture = parseTexture(nativeImage, sRGB, mipmap,
-                                        materialPropertyName, materialMap);
-                                if (materialPropertyName.equalsIgnoreCase("diffuseTexture")) {
-                                    diffuseTexture = texture;
-                                }
-                                else if (materialPropertyName.equalsIgnoreCase("specularTexture")) {
-                                    specularTexture = texture;
-                                }
-                                else if (materialPropertyName.equalsIgnoreCase("normalTexture")) {
-                                    normalMap = texture;
-                                }
-                                else {
-                                    throw new IllegalArgumentException("Invalid texture property received: " + materialPropertyName);
-                                }
-                            }
+                        if (!materialPropertyName.equalsIgnoreCase("diffuseTexture")
+                                && !materialPropertyName.equalsIgnoreCase("specularTexture")
+                                && !materialPropertyName.equalsIgnoreCase("normalTexture")) {
+                            throw new IllegalArgumentException("Invalid texture property received: " + materialPropertyName);
                         }
+                        textureLoads.add(new TextureLoad(materialPropertyName, format,
+                                createTextureKey(uri, format, sRGB, mipmap, materialMap), null));
                     }
                 }
             } else if (materialPropertyName.endsWith("color") || materialPropertyName.endsWith("Color")) {
@@ -319,7 +447,7 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         }
 
         Material nativeMaterial = new Material(lightingModel, diffuseColor, diffuseTexture,
-                diffuseIntensity, specularTexture, shininess, fresnelExponent, normalMap,
+                diffuseIntensity, null, shininess, fresnelExponent, null,
                 cullMode, transparencyMode, blendMode, bloomThreshold, writesToDepthBuffer,
                 readsFromDepthBuffer, colorWriteMask);
 
@@ -329,28 +457,156 @@ public class MaterialManager extends ReactContextBaseJavaModule {
             nativeMaterial.setChromaKeyFilteringColor(chromaKeyFilteringColor);
         }
 
+        // Parse stuff
+        parsePBRProperties(PBRProperties.METALNESS, nativeMaterial, materialMap, textureLoads);
+        parsePBRProperties(PBRProperties.ROUGHNESS, nativeMaterial, materialMap, textureLoads);
+        parsePBRProperties(PBRProperties.AMBIENT_OCCLUSION_TEXTURE, nativeMaterial, materialMap, textureLoads);
+
+        // Publish the material before starting the texture loads, so that a load completing
+        // right away finds it current.
         materialWrapper.setNativeMaterial(nativeMaterial);
+        for (TextureLoad load : textureLoads) {
+            loadTextureAsync(materialWrapper, nativeMaterial, load, batch);
+        }
+    }
 
-        // Parse stuff
-        parsePBRProperties(PBRProperties.METALNESS, nativeMaterial, materialMap);
-        parsePBRProperties(PBRProperties.ROUGHNESS, nativeMaterial, materialMap);
-        parsePBRProperties(PBRProperties.AMBIENT_OCCLUSION_TEXTURE, nativeMaterial, materialMap);
+    /**
+     * Sets the texture described by the given load on the material, sharing it with every other
+     * material that uses the same source and sampling parameters. The image is only fetched if
+     * no other material has it loaded or loading.
+     */
+    private void loadTextureAsync(MaterialWrapper materialWrapper, Material material,
+                                  TextureLoad load, MaterialBatch batch) {
+        if (batch != null) {
+            batch.add();
+        }
+
+        TextureRequest request = new TextureRequest(materialWrapper, material, load, batch);
+        SharedTexture sharedTexture;
+        boolean needsDownload = false;
+        synchronized (sTextureLock) {
+            sharedTexture = sTextureMap.get(load.mKey);
+            if (sharedTexture == null) {
+                sharedTexture = new SharedTexture(load.mKey);
+                sTextureMap.put(load.mKey, sharedTexture);
+                needsDownload = true;
+            }
+            sharedTexture.mRefCount++;
+            materialWrapper.addTexture(sharedTexture);
 
-        // We don't need to hold a Java texture reference after assigning the texture to the material.
-        // Make an exception for the videoTexture as we use the nativeref to play,pause, loop the video.
-        if (diffuseTexture != null && videoTexture == null) {
-            diffuseTexture.dispose();
+            if (sharedTexture.mTexture != null) {
+                request.completed(sharedTexture.mTexture);
+            } else {
+                sharedTexture.mPendingRequests.add(request);
+            }
         }
-        if (specularTexture != null) {
-            specularTexture.dispose();
+
+        if (needsDownload) {
+            downloadSharedTexture(sharedTexture, load.mDownloadFormat);
         }
-        if (normalMap != null) {
-            normalMap.dispose();
+    }
+
+    private void downloadSharedTexture(final SharedTexture sharedTexture, Texture.Format downloadFormat) {
+        final TextureKey key = sharedTexture.mKey;
+        ImageDownloader downloader = new ImageDownloader(mContext);
+        downloader.setTextureFormat(downloadFormat);
+        downloader.getImageReferenceAsync(key.mUri, new ImageReferenceListener() {
+            @Override
+            public boolean isValid() {
+                // Always let the download report back, so that pending batches get completed.
+                return true;
+            }
+
+            @Override
+            public void completed(CloseableReference<Bitmap> result) {
+                if (result.get() == null) {
+                    result.close();
+                    failed("Decoded image was empty");
+                    return;
+                }
+
+                // The native Image holds its own copy of the pixels, so the decoded bitmap can
+                // go straight back to Fresco.
+                Image nativeImage = new Image(result.get(), key.mFormat);
+                long textureBytes = TextureCache.estimateBytes(result.get().getWidth(),
+                        result.get().getHeight(), key.mFormat, key.mMipmap);
+                result.close();
+                Texture texture = new Texture(nativeImage, key.mSRGB, key.mMipmap);
+                applySamplerSettings(texture, key);
+
+                // Textures are set on materials under the lock, so that releaseTextures can't
+                // dispose one while it is being set.
+                synchronized (sTextureLock) {
+                    for (TextureRequest request : sharedTexture.mPendingRequests) {
+                        request.completed(texture);
+                    }
+                    sharedTexture.mPendingRequests = new ArrayList<TextureRequest>();
+
+                    if (sharedTexture.mRefCount > 0) {
+                        sharedTexture.mImages.add(nativeImage);
+                        sharedTexture.mTexture = texture;
+                        sharedTexture.mBytes = textureBytes;
+                        TextureCache.trackExternal(textureBytes);
+                        return;
+                    }
+                }
+
+                // Every material that wanted this texture was deleted while it loaded.
+                texture.dispose();
+                nativeImage.destroy();
+            }
+
+            @Override
+            public void failed(String error) {
+                List<TextureRequest> requests;
+                synchronized (sTextureLock) {
+                    requests = sharedTexture.mPendingRequests;
+                    sharedTexture.mPendingRequests = new ArrayList<TextureRequest>();
+                    // Forget the failed entry so that the next material using it retries.
+                    if (sTextureMap.get(key) == sharedTexture) {
+                        sTextureMap.remove(key);
+                    }
+                }
+
+                for (TextureRequest request : requests) {
+                    request.failed(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the given materials' references to their shared textures, disposing the textures
+     * no other material references.
+     */
+    private void releaseTextures(List<SharedTexture> sharedTextures) {
+        synchronized (sTextureLock) {
+            for (SharedTexture sharedTexture : sharedTextures) {
+                sharedTexture.mRefCount--;
+                if (sharedTexture.mRefCount > 0) {
+                    continue;
+                }
+                if (sTextureMap.get(sharedTexture.mKey) == sharedTexture) {
+                    sTextureMap.remove(sharedTexture.mKey);
+                }
+
+                // Textures that are still loading are disposed by their download once it finishes.
+                if (sharedTexture.mTexture != null) {
+                    sharedTexture.mTexture.dispose();
+                    sharedTexture.mTexture = null;
+                    TextureCache.untrackExternal(sharedTexture.mBytes);
+                    sharedTexture.mBytes = 0;
+                }
+                for (Image image : sharedTexture.mImages) {
+                    image.destroy();
+                }
+                sharedTexture.mImages.clear();
+            }
         }
-        return materialWrapper;
     }
 
-    private void parsePBRProperties(PBRProperties property, Material material, ReadableMap materialMap) {
+    private void parsePBRProperties(PBRProperties property, Material material, ReadableMap materialMap,
+                                    List<TextureLoad> textureLoads) {
         String key = property.key;
         if (!materialMap.hasKey(key)) {
             return;
@@ -363,98 +619,41 @@ public class MaterialManager extends ReactContextBaseJavaModule {
             }
 
             Uri uri = Helper.parseUri(path, mContext);
-            ImageDownloader downloader = new ImageDownloader(mContext);
-            downloader.setTextureFormat(Texture.Format.RGB9_E5);
-
-            Bitmap imageBitmap = downloader.getImageSync(uri);
-            if (imageBitmap != null) {
-                Image nativeImage = new Image(imageBitmap, Texture.Format.RGBA8);
-                boolean sRGB = property == PBRProperties.AMBIENT_OCCLUSION_TEXTURE;
-                Texture texture = parseTexture(nativeImage, sRGB, false,
-                        key, materialMap);
-
-                property.setMapForMaterial(material, texture);
-            } else {
-                throw new IllegalArgumentException("Error: Unable to get environment light map resource!");
-            }
+            boolean sRGB = property == PBRProperties.AMBIENT_OCCLUSION_TEXTURE;
+            textureLoads.add(new TextureLoad(key, Texture.Format.RGB9_E5,
+                    createTextureKey(uri, Texture.Format.RGBA8, sRGB, false, materialMap), property));
         } else {
             float value = (float)materialMap.getDouble(key);
             property.setPropertyForMaterial(material, value);
         }
     }
 
-    private Texture parseTexture(Image image, boolean sRGB, boolean mipmap,
-                                 String name, ReadableMap materialMap) {
-        Texture nativeTexture = new Texture(image, sRGB, mipmap);
-        parseTexture(nativeTexture, name, materialMap);
-        return nativeTexture;
+    private TextureKey createTextureKey(Uri uri, Texture.Format format, boolean sRGB, boolean mipmap,
+                                        ReadableMap materialMap) {
+        return new TextureKey(uri, format, sRGB, mipmap,
+                materialMap.hasKey("wrapS") ? materialMap.getString("wrapS") : null,
+                materialMap.hasKey("wrapT") ? materialMap.getString("wrapT") : null,
+                materialMap.hasKey("minificationFilter") ? materialMap.getString("minificationFilter") : null,
+                materialMap.hasKey("magnificationFilter") ? materialMap.getString("magnificationFilter") : null,
+                materialMap.hasKey("mipFilter") ? materialMap.getString("mipFilter") : null);
     }
 
-    private void parseTexture(Texture nativeTexture, String materialPropertyName, ReadableMap materialMap) {
-        if (materialMap.hasKey("wrapS")) {
-            nativeTexture.setWrapS(Texture.WrapMode.valueFromString(materialMap.getString("wrapS")));
-        }
-        if (materialMap.hasKey("wrapT")) {
-            nativeTexture.setWrapT(Texture.WrapMode.valueFromString(materialMap.getString("wrapT")));
-        }
-        if (materialMap.hasKey("minificationFilter")) {
-            nativeTexture.setMinificationFilter(Texture.FilterMode.valueFromString(materialMap.getString("minificationFilter")));
+    private void applySamplerSettings(Texture nativeTexture, TextureKey key) {
+        if (key.mWrapS != null) {
+            nativeTexture.setWrapS(Texture.WrapMode.valueFromString(key.mWrapS));
         }
-        if (materialMap.hasKey("magnificationFilter")) {
-            nativeTexture.setMagnificationFilter(Texture.FilterMode.valueFromString(materialMap.getString("magnificationFilter")));
+        if (key.mWrapT != null) {
+            nativeTexture.setWrapT(Texture.WrapMode.valueFromString(key.mWrapT));
         }
-        if (materialMap.hasKey("mipFilter")) {
-            nativeTexture.setMipFilter(Texture.FilterMode.valueFromString(materialMap.getString("mipFilter")));
-        }
-    }
-
-    private Texture createTextureCubeMap(ReadableMap textureMap, Texture.Format format) {
-        ReadableMapKeySetIterator iter = textureMap.keySetIterator();
-
-        if (!iter.hasNextKey()) {
-            throw new IllegalArgumentException("Error creating cube map: ensure the nx, px, ny, py, nz, and pz params are passed in the body of the cube map texture");
+        if (key.mMinificationFilter != null) {
+            nativeTexture.setMinificationFilter(Texture.FilterMode.valueFromString(key.mMinificationFilter));
         }
-
-        final Map<String, Image> cubeMapImages = new HashMap<String, Image>();
-        long cubeSize = -1;
-
-        // create an image for each texture
-        while (iter.hasNextKey()) {
-            final String key = iter.nextKey();
-            if (sImageMap.get(key) != null) {
-                cubeMapImages.put(key, sImageMap.get(key));
-            } else {
-                ImageDownloader downloader = new ImageDownloader(mContext);
-                downloader.setTextureFormat(format);
-                Image nativeImage = new Image(downloader.getImageSync(textureMap), format);
-                cubeMapImages.put(key, nativeImage);
-            }
-
-            Image nativeImageToValidate = cubeMapImages.get(key);
-            // check that the width == height and all sides are the same size
-            if (cubeSize < 0) {
-                cubeSize = nativeImageToValidate.getWidth();
-            }
-
-            if (nativeImageToValidate.getWidth() != cubeSize
-                    || nativeImageToValidate.getHeight() != cubeSize) {
-                throw new IllegalArgumentException("Error loading cube map. Cube map must be square and uniformly sized");
-            }
+        if (key.mMagnificationFilter != null) {
+            nativeTexture.setMagnificationFilter(Texture.FilterMode.valueFromString(key.mMagnificationFilter));
         }
-
-        // check that we have all 6 sides
-        if (cubeMapImages.get("px") == null ||
-                cubeMapImages.get("nx") == null ||
-                cubeMapImages.get("py") == null ||
-                cubeMapImages.get("ny") == null ||
-                cubeMapImages.get("pz") == null ||
-                cubeMapImages.get("nz") == null ) {
-            throw new IllegalArgumentException("Some cube map images are null. Please check and fix");
+        if (key.mMipFilter != null) {
+            nativeTexture.setMipFilter(Texture.FilterMode.valueFromString(key.mMipFilter));
         }
-        // create and return a Texture w/ all 6 sides.
-        return new Texture(cubeMapImages.get("px"), cubeMapImages.get("nx"),
-                              cubeMapImages.get("py"), cubeMapImages.get("ny"),
-                              cubeMapImages.get("pz"), cubeMapImages.get("nz"));
     }
 
     private String parseAssetType(ReadableMap map, String key) {
@@ -548,11 +747,180 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         }
     }
 
+    /**
+     * Identifies a shared texture by its resolved source and the parameters it was created with.
+     */
+    private static final class TextureKey {
+        final Uri mUri;
+        final Texture.Format mFormat;
+        final boolean mSRGB;
+        final boolean mMipmap;
+        final String mWrapS;
+        final String mWrapT;
+        final String mMinificationFilter;
+        final String mMagnificationFilter;
+        final String mMipFilter;
+
+        TextureKey(Uri uri, Texture.Format format, boolean sRGB, boolean mipmap, String wrapS,
+                   String wrapT, String minificationFilter, String magnificationFilter,
+                   String mipFilter) {
+            mUri = uri;
+            mFormat = format;
+            mSRGB = sRGB;
+            mMipmap = mipmap;
+            mWrapS = wrapS;
+            mWrapT = wrapT;
+            mMinificationFilter = minificationFilter;
+            mMagnificationFilter = magnificationFilter;
+            mMipFilter = mipFilter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TextureKey)) {
+                return false;
+            }
+            TextureKey other = (TextureKey) o;
+            return mSRGB == other.mSRGB
+                    && mMipmap == other.mMipmap
+                    && mFormat == other.mFormat
+                    && Objects.equals(mUri, other.mUri)
+                    && Objects.equals(mWrapS, other.mWrapS)
+                    && Objects.equals(mWrapT, other.mWrapT)
+                    && Objects.equals(mMinificationFilter, other.mMinificationFilter)
+                    && Objects.equals(mMagnificationFilter, other.mMagnificationFilter)
+                    && Objects.equals(mMipFilter, other.mMipFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUri, mFormat, mSRGB, mMipmap, mWrapS, mWrapT,
+                    mMinificationFilter, mMagnificationFilter, mMipFilter);
+        }
+    }
+
+    /**
+     * A texture shared by every material referencing its key. Until it has loaded, the
+     * requests of those materials wait in mPendingRequests.
+     */
+    private static final class SharedTexture {
+        final TextureKey mKey;
+        final List<Image> mImages = new ArrayList<Image>();
+        Texture mTexture;
+        // Estimated memory of mTexture, as reported to the TextureCache's accounting.
+        long mBytes = 0;
+        int mRefCount = 0;
+        List<TextureRequest> mPendingRequests = new ArrayList<TextureRequest>();
+
+        SharedTexture(TextureKey key) {
+            mKey = key;
+        }
+    }
+
+    /**
+     * An image texture of a material that is fetched after the material itself is created.
+     */
+    private static class TextureLoad {
+        final String mPropertyName;
+        // The format the bitmap is downloaded as; the native Image format is in the key.
+        final Texture.Format mDownloadFormat;
+        final TextureKey mKey;
+        // Set if this texture is a PBR map, null for diffuse, specular and normal textures.
+        final PBRProperties mPBRProperty;
+
+        TextureLoad(String propertyName, Texture.Format downloadFormat, TextureKey key,
+                    PBRProperties pbrProperty) {
+            mPropertyName = propertyName;
+            mDownloadFormat = downloadFormat;
+            mKey = key;
+            mPBRProperty = pbrProperty;
+        }
+    }
+
+    /**
+     * A material waiting for one of its textures.
+     */
+    private static class TextureRequest {
+        final MaterialWrapper mMaterialWrapper;
+        final Material mMaterial;
+        final TextureLoad mLoad;
+        final MaterialBatch mBatch;
+
+        TextureRequest(MaterialWrapper materialWrapper, Material material, TextureLoad load,
+                       MaterialBatch batch) {
+            mMaterialWrapper = materialWrapper;
+            mMaterial = material;
+            mLoad = load;
+            mBatch = batch;
+        }
+
+        void completed(Texture texture) {
+            mMaterialWrapper.setTexture(mMaterial, mLoad, texture);
+            if (mBatch != null) {
+                mBatch.complete();
+            }
+        }
+
+        void failed(String error) {
+            ViroLog.warn(TAG, "Could not load " + mLoad.mPropertyName + " for material ["
+                    + mMaterialWrapper.mMaterialName + "]: " + error);
+            if (mBatch != null) {
+                mBatch.complete();
+            }
+        }
+    }
+
+    /**
+     * Tracks the texture loads started by one loadJSMaterials call and resolves its promise
+     * once they've all finished.
+     */
+    private static class MaterialBatch {
+        private final Promise mPromise;
+        private int mPendingLoads = 0;
+        private boolean mSealed = false;
+
+        MaterialBatch(Promise promise) {
+            mPromise = promise;
+        }
+
+        synchronized void add() {
+            mPendingLoads++;
+        }
+
+        synchronized void complete() {
+            mPendingLoads--;
+            resolveIfDone();
+        }
+
+        /**
+         * Called once every load in the batch has been added.
+         */
+        synchronized void seal() {
+            mSealed = true;
+            resolveIfDone();
+        }
+
+        private void resolveIfDone() {
+            if (mSealed && mPendingLoads == 0 && mPromise != null) {
+                mPromise.resolve(null);
+            }
+        }
+    }
+
     public interface MaterialChangeListener {
         // invoked when the diffuse video texture changed of the given material.
         public void onVideoTextureChanged(String materialName);
     }
 
+    public interface MaterialUpdateListener {
+        // invoked on the main thread when the given material changed in place, e.g. a texture
+        // finished loading onto it or its properties were updated.
+        public void onMaterialUpdated(String materialName, Material material);
+    }
+
     /**
      * MaterialWrapper Class
      */
@@ -560,8 +928,12 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         private String mMaterialName;
         private Material mNativeMaterial;
         // the source map that specified this material.
-        private final ReadableMap mMaterialSource;
+        private ReadableMap mMaterialSource;
+        // set when the renderer was recreated and this material has yet to be rebuilt for it.
+        private boolean mStale = false;
         private Map<String, Uri> mVideoTextures;
+        // The shared textures this material holds a reference to.
+        private List<SharedTexture> mTextures = new ArrayList<SharedTexture>();
 
         public MaterialWrapper(String materialName, ReadableMap source) {
             mVideoTextures = new HashMap<String, Uri>();
@@ -569,11 +941,58 @@ public class MaterialManager extends ReactContextBaseJavaModule {
             mMaterialName = materialName;
         }
 
-        public void setNativeMaterial(Material material) { mNativeMaterial = material; }
-        public Material getNativeMaterial() {
+        public synchronized void setNativeMaterial(Material material) { mNativeMaterial = material; }
+        public synchronized Material getNativeMaterial() {
             return mNativeMaterial;
         }
 
+        synchronized boolean isCurrent(Material material) {
+            return mNativeMaterial != null && mNativeMaterial == material;
+        }
+
+        /**
+         * Sets a texture that finished loading on the given material, unless the material has
+         * since been replaced or deleted.
+         */
+        synchronized void setTexture(Material material, TextureLoad load, Texture texture) {
+            if (!isCurrent(material)) {
+                return;
+            }
+
+            if (load.mPBRProperty != null) {
+                load.mPBRProperty.setMapForMaterial(material, texture);
+            } else if (load.mPropertyName.equalsIgnoreCase("diffuseTexture")) {
+                material.setDiffuseTexture(texture);
+            } else if (load.mPropertyName.equalsIgnoreCase("specularTexture")) {
+                material.setSpecularTexture(texture);
+            } else if (load.mPropertyName.equalsIgnoreCase("normalTexture")) {
+                material.setNormalMap(texture);
+            }
+            notifyMaterialUpdated(mMaterialName, material);
+        }
+
+        void addTexture(SharedTexture sharedTexture) {
+            mTextures.add(sharedTexture);
+        }
+
+        /**
+         * Returns the shared textures referenced by this material, and forgets them.
+         */
+        List<SharedTexture> takeTextures() {
+            synchronized (sTextureLock) {
+                List<SharedTexture> textures = mTextures;
+                mTextures = new ArrayList<SharedTexture>();
+                return textures;
+            }
+        }
+
+        synchronized void disposeNativeMaterial() {
+            if (mNativeMaterial != null) {
+                mNativeMaterial.dispose();
+                mNativeMaterial = null;
+            }
+        }
+
         public void addVideoTexturePath(String name, Uri videoUri) {
             mVideoTextures.put(name, videoUri);
         }
@@ -595,11 +1014,16 @@ public class MaterialManager extends ReactContextBaseJavaModule {
         }
 
         public void recreate(VideoTexture videoTexture) {
+            mStale = false;
             if (mMaterialSource != null) {
-                MaterialWrapper other = createMaterial(mMaterialName, mMaterialSource, videoTexture);
-                mNativeMaterial.dispose();
-                mNativeMaterial = other.mNativeMaterial;
-                mVideoTextures = other.mVideoTextures;
+                Material previous = getNativeMaterial();
+                List<SharedTexture> previousTextures = takeTextures();
+                mVideoTextures = new HashMap<String, Uri>();
+                createMaterial(this, videoTexture, null);
+                releaseTextures(previousTextures);
+                if (previous != null) {
+                    previous.dispose();
+                }
                 if (sMaterialChangeListeners.get(mMaterialName) != null &&
                         sMaterialChangeListeners.get(mMaterialName).get() != null) {
                     MaterialChangeListener listener = sMaterialChangeListeners.get(mMaterialName).get();
@@ -608,12 +1032,23 @@ public class MaterialManager extends ReactContextBaseJavaModule {
             }
         }
 
+        void recreateIfStale() {
+            if (mStale) {
+                recreate();
+            }
+        }
+
         public void recreate() {
+            mStale = false;
             if (mMaterialSource != null) {
-                MaterialWrapper other = createMaterial(mMaterialName, mMaterialSource);
-                mNativeMaterial.dispose();
-                mNativeMaterial = other.mNativeMaterial;
-                mVideoTextures = other.mVideoTextures;
+                Material previous = getNativeMaterial();
+                List<SharedTexture> previousTextures = takeTextures();
+                mVideoTextures = new HashMap<String, Uri>();
+                createMaterial(this, null, null);
+                releaseTextures(previousTextures);
+                if (previous != null) {
+                    previous.dispose();
+                }
             }
         }
     }
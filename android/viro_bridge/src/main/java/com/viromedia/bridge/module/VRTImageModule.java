@@ -23,16 +23,33 @@ package com.viromedia.bridge.module;
 
 
 import android.content.Context;
+import android.net.Uri;
 
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
+import com.viro.core.Texture;
+import com.viromedia.bridge.utility.DecodedImageDiskCache;
+import com.viromedia.bridge.utility.Helper;
+import com.viromedia.bridge.utility.ImageDecodeScheduler;
 import com.viromedia.bridge.utility.ImageDownloader;
+import com.viromedia.bridge.utility.TextureCache;
+import com.viromedia.bridge.utility.ViroLog;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ReactModule(name = "VRTImageModule")
 public class VRTImageModule extends ReactContextBaseJavaModule {
+    private static final String TAG = ViroLog.getTag(VRTImageModule.class);
+    private static final String URI_KEY = "uri";
 
     private final Context mContext;
 
@@ -54,4 +71,147 @@ public class VRTImageModule extends ReactContextBaseJavaModule {
     public void evictFromCache(ReadableMap map) {
         ImageDownloader.evictFromCache(map, mContext);
     }
+
+    /**
+     * Fetches the given image sources at low priority, so that a scene using them later doesn't
+     * wait on the network. The promise resolves with the number of sources that succeeded and
+     * failed once all of them are done.
+     *
+     * Options: toMemoryCache also decodes the images into memory. Decoded images are only
+     * reused by images requesting the same format and maxSize (in pixels), so those can be given
+     * as well. On API 28+ local images (resources, assets and files) are decoded in place rather
+     * than through Fresco, so toMemoryCache has no effect for them.
+     */
+    @ReactMethod
+    public void prefetch(ReadableArray sources, ReadableMap options, Promise promise) {
+        boolean toMemoryCache = options != null && options.hasKey("toMemoryCache")
+                && options.getBoolean("toMemoryCache");
+
+        ImageDownloader downloader = new ImageDownloader(mContext);
+        downloader.setPriority(ImageDecodeScheduler.Lane.PREFETCH);
+        if (options != null && options.hasKey("format")) {
+            downloader.setTextureFormat(Texture.Format.forString(options.getString("format")));
+        }
+        if (options != null && options.hasKey("maxSize")) {
+            downloader.setTargetSize(ImageDownloader.getTargetSize((float) options.getDouble("maxSize")));
+        }
+
+        final PrefetchBatch batch = new PrefetchBatch(sources.size(), promise);
+        for (int i = 0; i < sources.size(); i++) {
+            ReadableMap source = sources.getMap(i);
+            Uri uri = null;
+            if (source != null && source.hasKey(URI_KEY)) {
+                uri = Helper.parseUri(source.getString(URI_KEY), mContext);
+            }
+            if (uri == null) {
+                ViroLog.warn(TAG, "Unable to prefetch image source without a \"uri\" key.");
+                batch.done(false);
+                continue;
+            }
+
+            DataSource<Void> dataSource = downloader.prefetch(uri, toMemoryCache);
+            dataSource.subscribe(new BaseDataSubscriber<Void>() {
+                @Override
+                protected void onNewResultImpl(DataSource<Void> dataSource) {
+                    if (dataSource.isFinished()) {
+                        batch.done(true);
+                        dataSource.close();
+                    }
+                }
+
+                @Override
+                protected void onFailureImpl(DataSource<Void> dataSource) {
+                    batch.done(false);
+                }
+
+                @Override
+                public void onCancellation(DataSource<Void> dataSource) {
+                    // Count it as failed, so that the promise still settles
+                    batch.done(false);
+                }
+            }, ImageDecodeScheduler.getInstance().executorFor(ImageDecodeScheduler.Lane.PREFETCH));
+        }
+    }
+
+    /**
+     * Resolves with a snapshot of the image loading and texture caching counters.
+     */
+    @ReactMethod
+    public void getCacheStats(Promise promise) {
+        ImageDecodeScheduler scheduler = ImageDecodeScheduler.getInstance();
+
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("textureCount", TextureCache.size());
+        stats.putDouble("textureBytes", TextureCache.getTrackedBytes());
+        stats.putDouble("unusedTextureBytes", TextureCache.getUnusedBytes());
+        stats.putDouble("textureBudgetBytes", TextureCache.getBudget());
+        stats.putInt("inFlightFetches", ImageDownloader.getInFlightFetchCount());
+        stats.putInt("queuedDecodes", scheduler.getQueueDepth());
+        stats.putInt("queuedPrefetches", scheduler.getQueueDepth(ImageDecodeScheduler.Lane.PREFETCH));
+        stats.putInt("activeDecodes", scheduler.getActiveCount());
+        stats.putDouble("completedFetches", ImageDownloader.getCompletedFetchCount());
+        stats.putDouble("cancelledRequests", ImageDownloader.getCancelledRequestCount());
+        stats.putDouble("cancelledFetches", ImageDownloader.getCancelledFetchCount());
+        stats.putDouble("wastedDecodes", ImageDownloader.getWastedDecodeCount());
+        DecodedImageDiskCache diskCache = DecodedImageDiskCache.getInstance(mContext);
+        stats.putDouble("diskCacheBytes", diskCache.getSizeInBytes());
+        stats.putDouble("diskCacheHits", diskCache.getHitCount());
+        stats.putDouble("diskCacheMisses", diskCache.getMissCount());
+        promise.resolve(stats);
+    }
+
+    /**
+     * Sets the texture memory budget in bytes. Textures no longer in use are evicted, least
+     * recently used first, to stay under it.
+     */
+    @ReactMethod
+    public void setTextureMemoryBudget(double bytes) {
+        TextureCache.setBudget((long) bytes);
+    }
+
+    /**
+     * Enables or disables the on-disk cache of decoded images. When enabled, images on the device
+     * that were decoded once are later loaded from disk as raw pixels in their texture's bitmap
+     * config, until their source changes. Remote images are not cached.
+     */
+    @ReactMethod
+    public void setDecodedImageCacheEnabled(boolean enabled) {
+        ImageDownloader.setDiskCacheEnabled(mContext, enabled);
+    }
+
+    /**
+     * Tracks the sources of one prefetch call and resolves its promise when all are done.
+     */
+    private static class PrefetchBatch {
+        private final AtomicInteger mRemaining;
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final Promise mPromise;
+
+        PrefetchBatch(int count, Promise promise) {
+            mRemaining = new AtomicInteger(count);
+            mPromise = promise;
+            if (count == 0) {
+                resolve();
+            }
+        }
+
+        void done(boolean success) {
+            if (success) {
+                mSucceeded.incrementAndGet();
+            } else {
+                mFailed.incrementAndGet();
+            }
+            if (mRemaining.decrementAndGet() == 0) {
+                resolve();
+            }
+        }
+
+        private void resolve() {
+            WritableMap result = Arguments.createMap();
+            result.putInt("succeeded", mSucceeded.get());
+            result.putInt("failed", mFailed.get());
+            mPromise.resolve(result);
+        }
+    }
 }
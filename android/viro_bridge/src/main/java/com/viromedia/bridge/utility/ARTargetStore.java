@@ -0,0 +1,216 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists the prepared images of an AR tracking target set in app storage, so that later
+ * sessions can create their targets without downloading and decoding the sources again.
+ *
+ * A set is stored as a single file named after the hash of the set's description (see
+ * {@link #getSetKey(String)}), which is memory-mapped when loaded. Only the most recently used
+ * sets are kept.
+ */
+public class ARTargetStore {
+    private static final String TAG = ViroLog.getTag(ARTargetStore.class);
+    private static final String DIRECTORY_NAME = "viro_ar_targets";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x56525441; // "VRTA"
+    private static final int VERSION = 1;
+    private static final int MAX_STORED_SETS = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ARTargetStore sInstance;
+
+    public static synchronized ARTargetStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ARTargetStore(
+                    new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the key of the target set with the given description, which must cover every
+     * property that affects the stored images (sources, sizes, etc.) in a stable order.
+     */
+    public static String getSetKey(String description) {
+        return DecodedImageDiskCache.hash(description);
+    }
+
+    public interface LoadListener {
+        /**
+         * Called from a decode thread with the stored images by target name, or null if the
+         * set isn't stored.
+         */
+        void completed(Map<String, Bitmap> images);
+    }
+
+    private final File mDirectory;
+
+    private ARTargetStore(File directory) {
+        mDirectory = directory;
+    }
+
+    public void loadAsync(final String setKey, final LoadListener listener) {
+        ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.AR_TARGET, new Runnable() {
+            @Override
+            public void run() {
+                listener.completed(load(setKey));
+            }
+        });
+    }
+
+    /**
+     * Stores the given images by target name as the given set, off the calling thread. The
+     * bitmaps must not be recycled until this is done.
+     */
+    public void saveAsync(final String setKey, final Map<String, Bitmap> images) {
+        ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                save(setKey, images);
+            }
+        });
+    }
+
+    private Map<String, Bitmap> load(String setKey) {
+        File file = new File(mDirectory, setKey);
+        if (!file.exists()) {
+            return null;
+        }
+
+        Map<String, Bitmap> images = new HashMap<>();
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Bad header");
+            }
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                Bitmap.Config config = Bitmap.Config.values()[buffer.getInt()];
+                int byteCount = buffer.getInt();
+
+                Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+                ByteBuffer pixels = buffer.slice();
+                pixels.limit(byteCount);
+                bitmap.copyPixelsFromBuffer(pixels);
+                buffer.position(buffer.position() + byteCount);
+                images.put(new String(name, UTF_8), bitmap);
+            }
+
+            file.setLastModified(System.currentTimeMillis());
+            return images;
+        } catch (IOException | RuntimeException e) {
+            ViroLog.warn(TAG, "Discarding unreadable AR target set [" + setKey + "]: " + e.getMessage());
+            for (Bitmap bitmap : images.values()) {
+                bitmap.recycle();
+            }
+            file.delete();
+            return null;
+        }
+    }
+
+    private void save(String setKey, Map<String, Bitmap> images) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        File file = new File(mDirectory, setKey);
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream output = new FileOutputStream(tempFile);
+             FileChannel channel = output.getChannel()) {
+            write(channel, ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC).putInt(VERSION).putInt(images.size()));
+
+            for (Map.Entry<String, Bitmap> entry : images.entrySet()) {
+                byte[] name = entry.getKey().getBytes(UTF_8);
+                Bitmap bitmap = entry.getValue();
+                write(channel, ByteBuffer.allocate(5 * 4 + name.length).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(name.length).put(name).putInt(bitmap.getWidth()).putInt(bitmap.getHeight())
+                        .putInt(bitmap.getConfig().ordinal()).putInt(bitmap.getByteCount()));
+
+                ByteBuffer pixels = ByteBuffer.allocateDirect(bitmap.getByteCount());
+                bitmap.copyPixelsToBuffer(pixels);
+                write(channel, pixels);
+            }
+        } catch (IOException | RuntimeException e) {
+            ViroLog.warn(TAG, "Unable to store AR target set [" + setKey + "]: " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        // Readers never see a partially written set
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        trim();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private synchronized void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_STORED_SETS) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.lastModified(), a.lastModified());
+            }
+        });
+        for (int i = MAX_STORED_SETS; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -21,6 +21,8 @@
 
 package com.viromedia.bridge.utility;
 
+import android.util.Base64;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
@@ -31,9 +33,20 @@ import com.viro.core.ARPlaneAnchor;
 import com.viro.core.ARPointCloud;
 import com.viro.core.Vector;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class ARUtils {
 
     public static WritableMap mapFromARAnchor(ARAnchor anchor) {
+        return mapFromARAnchor(anchor, true);
+    }
+
+    /**
+     * Same as {@link #mapFromARAnchor(ARAnchor)}, leaving out the vertices of plane anchors
+     * unless includeVertices is set.
+     */
+    public static WritableMap mapFromARAnchor(ARAnchor anchor, boolean includeVertices) {
         WritableMap returnMap = Arguments.createMap();
         returnMap.putString("anchorId", anchor.getAnchorId());
         returnMap.putArray("position", Arguments.makeNativeArray(anchor.getPosition().toArray()));
@@ -49,11 +62,13 @@ public class ARUtils {
             returnMap.putDouble("height", plane.getExtent().z);
             returnMap.putString("alignment", plane.getAlignment().getStringValue());
 
-            WritableArray polygonPointsArray = Arguments.createArray();
-            for (Vector point : plane.getVertices()){
-                polygonPointsArray.pushArray(arrayFromVector(point));
+            if (includeVertices) {
+                WritableArray polygonPointsArray = Arguments.createArray();
+                for (Vector point : plane.getVertices()){
+                    polygonPointsArray.pushArray(arrayFromVector(point));
+                }
+                returnMap.putArray("vertices", polygonPointsArray);
             }
-            returnMap.putArray("vertices", polygonPointsArray);
         } else if (anchor.getType() == ARAnchor.Type.IMAGE) {
             ARImageAnchor imageAnchor = (ARImageAnchor)anchor;
             returnMap.putString("trackingMethod", imageAnchor.getTrackingMethod().getStringValue());
@@ -75,8 +90,15 @@ public class ARUtils {
     }
 
     public static WritableMap mapFromARPointCloud(ARPointCloud pointCloud) {
+        return mapFromARPointCloud(pointCloud.getPoints(), pointCloud.getIds());
+    }
+
+    /**
+     * Same as {@link #mapFromARPointCloud(ARPointCloud)}, for points and ids that were already
+     * read out of (and possibly filtered from) a point cloud.
+     */
+    public static WritableMap mapFromARPointCloud(float[] points, long[] ids) {
         WritableArray pointsArray = Arguments.createArray();
-        float[] points = pointCloud.getPoints();
         for (int i = 0; i < points.length; i+=4) {
             WritableArray point = Arguments.createArray();
             point.pushDouble(points[i]);
@@ -87,18 +109,40 @@ public class ARUtils {
         }
 
         WritableArray idsArray = Arguments.createArray();
-        long[] ids = pointCloud.getIds();
         for (int i = 0; i < ids.length; i++) {
             idsArray.pushInt((int)ids[i]);
         }
 
-
         WritableMap returnMap = Arguments.createMap();
         returnMap.putArray("points", pointsArray);
         returnMap.putArray("identifiers", idsArray);
         return returnMap;
     }
 
+    public static WritableMap packedMapFromARPointCloud(ARPointCloud pointCloud) {
+        return packedMapFromARPointCloud(pointCloud.getPoints(), pointCloud.getIds());
+    }
+
+    /**
+     * Packs the point cloud into two base64 strings instead of an array per point: "pointsData"
+     * holds the [x, y, z, confidence] floats and "identifiersData" the ids as 32 bit ints, both
+     * little endian. JS views them as a Float32Array and an Int32Array.
+     */
+    public static WritableMap packedMapFromARPointCloud(float[] points, long[] ids) {
+        ByteBuffer pointsBuffer = ByteBuffer.allocate(points.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        pointsBuffer.asFloatBuffer().put(points);
+
+        ByteBuffer idsBuffer = ByteBuffer.allocate(ids.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (long id : ids) {
+            idsBuffer.putInt((int) id);
+        }
+
+        WritableMap returnMap = Arguments.createMap();
+        returnMap.putString("pointsData", Base64.encodeToString(pointsBuffer.array(), Base64.NO_WRAP));
+        returnMap.putString("identifiersData", Base64.encodeToString(idsBuffer.array(), Base64.NO_WRAP));
+        return returnMap;
+    }
+
     /*
      Assumes there are only 3 elements in it.
      */
@@ -0,0 +1,250 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.uimanager.events.RCTEventEmitter;
+import com.viro.core.ARAnchor;
+import com.viro.core.ARPlaneAnchor;
+import com.viro.core.Vector;
+import com.viromedia.bridge.component.VRTComponent;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the anchor found, updated and removed events of an AR scene and sends them to JS as
+ * one batched event per frame.
+ *
+ * Updates that moved an anchor less than the configured thresholds since the last event sent
+ * for it, and didn't change its plane polygon, are dropped, as are repeated updates of the same
+ * anchor within a frame (only the latest is kept). Plane vertices are only sent when the plane's polygon changed; JS keeps the
+ * last vertices it received for each plane.
+ */
+public class AnchorEventBatcher implements Choreographer.FrameCallback {
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final String FOUND = "found";
+    private static final String UPDATED = "updated";
+    private static final String REMOVED = "removed";
+    private static final String POSITION_THRESHOLD_KEY = "positionThreshold";
+    private static final String ROTATION_THRESHOLD_KEY = "rotationThreshold";
+    private static final String EXTENT_THRESHOLD_KEY = "extentThreshold";
+
+    private final WeakReference<VRTComponent> mScene;
+    private final String mEventName;
+    private volatile float mPositionThreshold = 0;
+    private volatile float mRotationThresholdRadians = 0;
+    private volatile float mExtentThreshold = 0;
+
+    // All guarded by this.
+    private final List<PendingEvent> mPendingEvents = new ArrayList<>();
+    private final Map<String, PendingEvent> mPendingUpdates = new HashMap<>();
+    private final Map<String, AnchorState> mSentStates = new HashMap<>();
+    private boolean mFrameScheduled = false;
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(AnchorEventBatcher.this);
+        }
+    };
+
+    public AnchorEventBatcher(VRTComponent scene, String eventName) {
+        mScene = new WeakReference<>(scene);
+        mEventName = eventName;
+    }
+
+    /**
+     * Sets the thresholds from the given options map, with the optional keys
+     * "positionThreshold" (in meters), "rotationThreshold" (in degrees) and "extentThreshold"
+     * (in meters). Updates are sent if any of them is exceeded; by default any change is sent.
+     */
+    public void setOptions(ReadableMap options) {
+        mPositionThreshold = getThreshold(options, POSITION_THRESHOLD_KEY);
+        mRotationThresholdRadians = (float) Math.toRadians(getThreshold(options, ROTATION_THRESHOLD_KEY));
+        mExtentThreshold = getThreshold(options, EXTENT_THRESHOLD_KEY);
+    }
+
+    private static float getThreshold(ReadableMap options, String key) {
+        return options != null && options.hasKey(key) ? (float) Math.max(0, options.getDouble(key)) : 0;
+    }
+
+    public synchronized void anchorFound(ARAnchor anchor) {
+        mSentStates.put(anchor.getAnchorId(), new AnchorState(anchor));
+        add(new PendingEvent(FOUND, ARUtils.mapFromARAnchor(anchor, true)));
+    }
+
+    public synchronized void anchorUpdated(ARAnchor anchor) {
+        String anchorId = anchor.getAnchorId();
+        AnchorState state = new AnchorState(anchor);
+        AnchorState sentState = mSentStates.get(anchorId);
+        if (sentState != null && !state.differsFrom(sentState)) {
+            return;
+        }
+        boolean includeVertices = sentState == null || state.mPolygonHash != sentState.mPolygonHash;
+        mSentStates.put(anchorId, state);
+
+        PendingEvent pending = mPendingUpdates.get(anchorId);
+        if (pending != null && pending.mIncludesVertices) {
+            // JS hasn't seen the vertices of the update this one replaces yet
+            includeVertices = true;
+        }
+        WritableMap anchorMap = ARUtils.mapFromARAnchor(anchor, includeVertices);
+        if (pending != null) {
+            pending.mAnchor = anchorMap;
+            pending.mIncludesVertices = includeVertices;
+            return;
+        }
+
+        pending = new PendingEvent(UPDATED, anchorMap);
+        pending.mIncludesVertices = includeVertices;
+        mPendingUpdates.put(anchorId, pending);
+        add(pending);
+    }
+
+    public synchronized void anchorRemoved(ARAnchor anchor) {
+        String anchorId = anchor.getAnchorId();
+        mSentStates.remove(anchorId);
+        mPendingUpdates.remove(anchorId);
+        add(new PendingEvent(REMOVED, ARUtils.mapFromARAnchor(anchor, false)));
+    }
+
+    private void add(PendingEvent event) {
+        mPendingEvents.add(event);
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            sMainHandler.post(mScheduleFrame);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        WritableArray events = Arguments.createArray();
+        synchronized (this) {
+            mFrameScheduled = false;
+            for (PendingEvent pending : mPendingEvents) {
+                WritableMap event = Arguments.createMap();
+                event.putString("type", pending.mType);
+                event.putMap("anchor", pending.mAnchor);
+                events.pushMap(event);
+            }
+            mPendingEvents.clear();
+            mPendingUpdates.clear();
+        }
+
+        VRTComponent scene = mScene.get();
+        if (scene == null) {
+            return;
+        }
+        WritableMap batch = Arguments.createMap();
+        batch.putArray("events", events);
+        scene.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
+                scene.getId(),
+                mEventName,
+                batch);
+    }
+
+    private static final class PendingEvent {
+        private final String mType;
+        private WritableMap mAnchor;
+        private boolean mIncludesVertices = true;
+
+        private PendingEvent(String type, WritableMap anchor) {
+            mType = type;
+            mAnchor = anchor;
+        }
+    }
+
+    /**
+     * What was last sent to JS about an anchor.
+     */
+    private final class AnchorState {
+        private final float[] mPosition;
+        private final float[] mRotation;
+        private final float[] mExtent;
+        private final int mPolygonHash;
+
+        private AnchorState(ARAnchor anchor) {
+            mPosition = anchor.getPosition().toArray();
+            mRotation = anchor.getRotation().toArray();
+            if (anchor.getType() == ARAnchor.Type.PLANE) {
+                ARPlaneAnchor plane = (ARPlaneAnchor) anchor;
+                mExtent = plane.getExtent().toArray();
+                mPolygonHash = hashVertices(plane.getVertices());
+            } else {
+                mExtent = null;
+                mPolygonHash = 0;
+            }
+        }
+
+        private boolean differsFrom(AnchorState other) {
+            float dx = mPosition[0] - other.mPosition[0];
+            float dy = mPosition[1] - other.mPosition[1];
+            float dz = mPosition[2] - other.mPosition[2];
+            if (dx * dx + dy * dy + dz * dz > mPositionThreshold * mPositionThreshold) {
+                return true;
+            }
+            if (exceeds(mRotation, other.mRotation, mRotationThresholdRadians)) {
+                return true;
+            }
+            // A plane's boundary can change without its extent moving past the threshold
+            if (mPolygonHash != other.mPolygonHash) {
+                return true;
+            }
+            return mExtent != null && other.mExtent != null
+                    && exceeds(mExtent, other.mExtent, mExtentThreshold);
+        }
+    }
+
+    /**
+     * Whether any component differs by more than the threshold. A threshold of 0 catches any
+     * change at all.
+     */
+    private static boolean exceeds(float[] a, float[] b, float threshold) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hashVertices(List<Vector> vertices) {
+        int hash = 1;
+        for (Vector vertex : vertices) {
+            hash = 31 * hash + Float.floatToIntBits(vertex.x);
+            hash = 31 * hash + Float.floatToIntBits(vertex.y);
+            hash = 31 * hash + Float.floatToIntBits(vertex.z);
+        }
+        return hash;
+    }
+}
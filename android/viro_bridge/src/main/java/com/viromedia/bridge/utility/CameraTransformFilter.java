@@ -0,0 +1,112 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Decides which camera transform updates are worth sending to JS: updates are dropped if they
+ * arrive faster than the max update rate, or if the camera hasn't moved or turned by more than
+ * the given thresholds since the last update that was sent.
+ *
+ * This runs before any event is built, so dropped updates cost nothing on the bridge.
+ */
+public class CameraTransformFilter {
+    private static final String MAX_UPDATE_RATE_KEY = "maxUpdateRate";
+    private static final String POSITION_EPSILON_KEY = "positionEpsilon";
+    private static final String ROTATION_EPSILON_KEY = "rotationEpsilon";
+
+    private final long mMinUpdateIntervalMs;
+    private final float mPositionEpsilon;
+    private final float mRotationEpsilonRadians;
+    // Guarded by this.
+    private boolean mHasSentUpdate = false;
+    private long mLastUpdateTime;
+    private final float[] mLastPosition = new float[3];
+    private final float[] mLastRotation = new float[3];
+
+    /**
+     * Creates a filter from the given options map, with the optional keys "maxUpdateRate" (in
+     * updates per second), "positionEpsilon" (in meters) and "rotationEpsilon" (in degrees).
+     * Returns null if the map is null.
+     */
+    public static CameraTransformFilter fromMap(ReadableMap options) {
+        if (options == null) {
+            return null;
+        }
+        double maxUpdateRate = options.hasKey(MAX_UPDATE_RATE_KEY) ? options.getDouble(MAX_UPDATE_RATE_KEY) : 0;
+        float positionEpsilon = options.hasKey(POSITION_EPSILON_KEY) ? (float) options.getDouble(POSITION_EPSILON_KEY) : 0;
+        float rotationEpsilon = options.hasKey(ROTATION_EPSILON_KEY) ? (float) options.getDouble(ROTATION_EPSILON_KEY) : 0;
+        return new CameraTransformFilter(maxUpdateRate, positionEpsilon, rotationEpsilon);
+    }
+
+    public CameraTransformFilter(double maxUpdateRate, float positionEpsilon, float rotationEpsilonDegrees) {
+        mMinUpdateIntervalMs = maxUpdateRate > 0 ? (long) (1000 / maxUpdateRate) : 0;
+        mPositionEpsilon = Math.max(0, positionEpsilon);
+        mRotationEpsilonRadians = (float) Math.toRadians(Math.max(0, rotationEpsilonDegrees));
+    }
+
+    /**
+     * Returns true if the given transform should be sent, in which case it becomes the one
+     * later transforms are compared against. Rotations are euler angles in radians.
+     */
+    public synchronized boolean shouldSend(float posX, float posY, float posZ,
+                                           float rotX, float rotY, float rotZ) {
+        long now = SystemClock.uptimeMillis();
+        if (mHasSentUpdate) {
+            if (now - mLastUpdateTime < mMinUpdateIntervalMs) {
+                return false;
+            }
+
+            float dx = posX - mLastPosition[0];
+            float dy = posY - mLastPosition[1];
+            float dz = posZ - mLastPosition[2];
+            boolean moved = dx * dx + dy * dy + dz * dz > mPositionEpsilon * mPositionEpsilon;
+            boolean turned = angleBetween(rotX, mLastRotation[0]) > mRotationEpsilonRadians
+                    || angleBetween(rotY, mLastRotation[1]) > mRotationEpsilonRadians
+                    || angleBetween(rotZ, mLastRotation[2]) > mRotationEpsilonRadians;
+            if (!moved && !turned) {
+                return false;
+            }
+        }
+
+        mHasSentUpdate = true;
+        mLastUpdateTime = now;
+        mLastPosition[0] = posX;
+        mLastPosition[1] = posY;
+        mLastPosition[2] = posZ;
+        mLastRotation[0] = rotX;
+        mLastRotation[1] = rotY;
+        mLastRotation[2] = rotZ;
+        return true;
+    }
+
+    /**
+     * The smallest difference between two angles in radians, accounting for wrap around.
+     */
+    private static float angleBetween(float a, float b) {
+        double difference = Math.abs(a - b) % (2 * Math.PI);
+        return (float) (difference > Math.PI ? 2 * Math.PI - difference : difference);
+    }
+}
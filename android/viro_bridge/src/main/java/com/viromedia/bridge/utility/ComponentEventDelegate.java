@@ -47,8 +47,81 @@ import java.lang.ref.WeakReference;
  */
 public class ComponentEventDelegate implements EventDelegate.EventDelegateCallback {
     private WeakReference<VRTComponent> weakComponent;
+
+    // Continuous gestures are coalesced to one event per frame; see GestureEventCoalescer.
+    private final GestureEventCoalescer.PendingEvent mPendingTouch;
+    private final GestureEventCoalescer.PendingEvent mPendingScroll;
+    private final GestureEventCoalescer.PendingEvent mPendingDrag;
+    private final GestureEventCoalescer.PendingEvent mPendingPinch;
+    private final GestureEventCoalescer.PendingEvent mPendingRotate;
+
     public ComponentEventDelegate(VRTComponent component){
         weakComponent = new WeakReference<VRTComponent>(component);
+
+        mPendingTouch = new GestureEventCoalescer.PendingEvent(weakComponent, ViroEvents.ON_TOUCH) {
+            @Override
+            protected WritableMap createEvent() {
+                WritableMap event = Arguments.createMap();
+                event.putInt("source", mSource);
+                event.putInt("touchState", mState);
+
+                WritableArray touchPos = Arguments.createArray();
+                touchPos.pushDouble(mX);
+                touchPos.pushDouble(mY);
+                event.putArray("touchPos", touchPos);
+                return event;
+            }
+        };
+
+        mPendingScroll = new GestureEventCoalescer.PendingEvent(weakComponent, ViroEvents.ON_SCROLL) {
+            @Override
+            protected WritableMap createEvent() {
+                WritableMap event = Arguments.createMap();
+                event.putInt("source", mSource);
+                WritableArray scrollPos = Arguments.createArray();
+                scrollPos.pushDouble(mX);
+                scrollPos.pushDouble(mY);
+
+                event.putArray("scrollPos", scrollPos);
+                return event;
+            }
+        };
+
+        mPendingDrag = new GestureEventCoalescer.PendingEvent(weakComponent, ViroEvents.ON_DRAG) {
+            @Override
+            protected WritableMap createEvent() {
+                WritableMap event = Arguments.createMap();
+                event.putInt("source", mSource);
+                WritableArray dragToPos = Arguments.createArray();
+                dragToPos.pushDouble(mX);
+                dragToPos.pushDouble(mY);
+                dragToPos.pushDouble(mZ);
+                event.putArray("dragToPos", dragToPos);
+                return event;
+            }
+        };
+
+        mPendingPinch = new GestureEventCoalescer.PendingEvent(weakComponent, ViroEvents.ON_PINCH) {
+            @Override
+            protected WritableMap createEvent() {
+                WritableMap event = Arguments.createMap();
+                event.putInt("source", mSource);
+                event.putDouble("scaleFactor", mX);
+                event.putInt("pinchState", mState);
+                return event;
+            }
+        };
+
+        mPendingRotate = new GestureEventCoalescer.PendingEvent(weakComponent, ViroEvents.ON_ROTATE) {
+            @Override
+            protected WritableMap createEvent() {
+                WritableMap event = Arguments.createMap();
+                event.putInt("source", mSource);
+                event.putDouble("rotationFactor", Math.toDegrees(mX));
+                event.putInt("rotateState", mState);
+                return event;
+            }
+        };
     }
 
     @Override
@@ -70,10 +143,7 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         event.putBoolean("isHovering", isHovering);
         event.putArray("position", positionArray);
 
-        component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                component.getId(),
-                ViroEvents.ON_HOVER,
-                event);
+        sendEvent(component, ViroEvents.ON_HOVER, event);
     }
 
     @Override
@@ -95,32 +165,17 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         event.putInt("clickState", clickState.getTypeId());
         event.putArray("position", positionArray);
 
-        component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                component.getId(),
-                ViroEvents.ON_CLICK,
-                event);
+        sendEvent(component, ViroEvents.ON_CLICK, event);
     }
 
     @Override
     public void onTouch(int source, Node node, TouchState touchState, float touchPadPos[]){
-        VRTComponent component = weakComponent.get();
-        if (component == null){
+        if (weakComponent.get() == null){
             return;
         }
 
-        WritableMap event = Arguments.createMap();
-        event.putInt("source", source);
-        event.putInt("touchState", touchState.getTypeId());
-
-        WritableArray touchPos = Arguments.createArray();
-        touchPos.pushDouble(touchPadPos[0]);
-        touchPos.pushDouble(touchPadPos[1]);
-        event.putArray("touchPos", touchPos);
-
-        component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                component.getId(),
-                ViroEvents.ON_TOUCH,
-                event);
+        GestureEventCoalescer.getInstance().update(mPendingTouch, source, touchState.getTypeId(),
+                touchPadPos[0], touchPadPos[1], 0, touchState != TouchState.TOUCH_DOWN_MOVE);
     }
 
     @Override
@@ -133,51 +188,25 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         WritableMap event = Arguments.createMap();
         event.putInt("source", source);
         event.putInt("swipeState", swipeState.getTypeId());
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_SWIPE,
-                event);
+        sendEvent(node, ViroEvents.ON_SWIPE, event);
     }
 
     @Override
     public void onScroll(int source, Node node, float x, float y) {
-        VRTComponent component = weakComponent.get();
-        if (component == null){
+        if (weakComponent.get() == null){
             return;
         }
 
-        WritableMap event = Arguments.createMap();
-        event.putInt("source", source);
-        WritableArray scrollPos = Arguments.createArray();
-        scrollPos.pushDouble(x);
-        scrollPos.pushDouble(y);
-
-        event.putArray("scrollPos", scrollPos);
-        component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                component.getId(),
-                ViroEvents.ON_SCROLL,
-                event);
+        GestureEventCoalescer.getInstance().update(mPendingScroll, source, 0, x, y, 0, false);
     }
 
     @Override
     public void onDrag(int source, Node target, float x, float y, float z) {
-        VRTComponent node = weakComponent.get();
-        if (node == null){
+        if (weakComponent.get() == null){
             return;
         }
 
-        WritableMap event = Arguments.createMap();
-        event.putInt("source", source);
-        WritableArray dragToPos = Arguments.createArray();
-        dragToPos.pushDouble(x);
-        dragToPos.pushDouble(y);
-        dragToPos.pushDouble(z);
-        event.putArray("dragToPos", dragToPos);
-
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_DRAG,
-                event);
+        GestureEventCoalescer.getInstance().update(mPendingDrag, source, 0, x, y, z, false);
     }
 
     @Override
@@ -189,28 +218,17 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
 
         WritableMap event = Arguments.createMap();
         event.putInt("source", source);
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_FUSE,
-                event);
+        sendEvent(node, ViroEvents.ON_FUSE, event);
     }
 
     @Override
     public void onPinch(int source, Node target, float scaleFactor, PinchState pinchState) {
-        VRTComponent node = weakComponent.get();
-        if (node == null){
+        if (weakComponent.get() == null){
             return;
         }
 
-        WritableMap event = Arguments.createMap();
-        event.putInt("source", source);
-        event.putDouble("scaleFactor", scaleFactor);
-        event.putInt("pinchState", pinchState.getTypeId());
-
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_PINCH,
-                event);
+        GestureEventCoalescer.getInstance().update(mPendingPinch, source, pinchState.getTypeId(),
+                scaleFactor, 0, 0, pinchState != PinchState.PINCH_MOVE);
     }
 
     @Override
@@ -253,10 +271,7 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
 
                     event.putArray("cameraOrientation", cameraOrientationArray);
 
-                    scene.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                            scene.getId(),
-                            ViroEvents.ON_CAMERA_AR_HIT_TEST_VIRO,
-                            event);
+                    sendEvent(scene, ViroEvents.ON_CAMERA_AR_HIT_TEST_VIRO, event);
                 }
             });
         }
@@ -272,32 +287,41 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         if (node instanceof VRTARScene) {
             final VRTARScene arScene = (VRTARScene) node;
 
-            WritableMap event = Arguments.createMap();
-            event.putMap("pointCloud", ARUtils.mapFromARPointCloud(arPointCloud));
-
-            arScene.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                    arScene.getId(),
-                    ViroEvents.ON_AR_POINT_CLOUD_UPDATE,
-                    event);
+            PointCloudFilter filter = arScene.getPointCloudFilter();
+            if (filter == null) {
+                sendARPointCloud(arScene, arPointCloud.getPoints(), arPointCloud.getIds());
+                return;
+            }
+
+            // Filter off the renderer's thread, skipping updates while the last is in progress
+            if (filter.startUpdate()) {
+                filter.filterAsync(arPointCloud.getPoints(), arPointCloud.getIds(), new PointCloudFilter.Listener() {
+                    @Override
+                    public void completed(float[] points, long[] ids) {
+                        sendARPointCloud(arScene, points, ids);
+                    }
+                });
+            }
         }
     }
 
+    private static void sendARPointCloud(VRTARScene arScene, float[] points, long[] ids) {
+        WritableMap event = Arguments.createMap();
+        event.putMap("pointCloud", arScene.isPackedPointCloud()
+                ? ARUtils.packedMapFromARPointCloud(points, ids)
+                : ARUtils.mapFromARPointCloud(points, ids));
+
+        sendEvent(arScene, ViroEvents.ON_AR_POINT_CLOUD_UPDATE, event);
+    }
+
     @Override
     public void onRotate(int source, Node target, float rotationRadians, RotateState rotateState) {
-        VRTComponent node = weakComponent.get();
-        if (node == null){
+        if (weakComponent.get() == null){
             return;
         }
 
-        WritableMap event = Arguments.createMap();
-        event.putInt("source", source);
-        event.putDouble("rotationFactor", Math.toDegrees(rotationRadians));
-        event.putInt("rotateState", rotateState.getTypeId());
-
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_ROTATE,
-                event);
+        GestureEventCoalescer.getInstance().update(mPendingRotate, source, rotateState.getTypeId(),
+                rotationRadians, 0, 0, rotateState != RotateState.ROTATE_MOVE);
     }
 
     @Override
@@ -310,10 +334,7 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         WritableMap event = Arguments.createMap();
         event.putInt("source", source);
         event.putInt("controllerStatus", controllerStatus.getTypeId());
-        node.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                node.getId(),
-                ViroEvents.ON_CONTROLLER_STATUS,
-                event);
+        sendEvent(node, ViroEvents.ON_CONTROLLER_STATUS, event);
     }
 
     @Override
@@ -330,6 +351,11 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
         if (node instanceof VRTScene) {
             final VRTScene scene = (VRTScene) node;
 
+            CameraTransformFilter filter = scene.getCameraTransformFilter();
+            if (filter != null && !filter.shouldSend(posX, poxY, posZ, rotEulerX, rotEulerY, rotEulerZ)) {
+                return;
+            }
+
             WritableMap event = Arguments.createMap();
 
             WritableArray cameraTransformArray = Arguments.createArray();
@@ -348,10 +374,19 @@ public class ComponentEventDelegate implements EventDelegate.EventDelegateCallba
 
             event.putArray("cameraTransform", cameraTransformArray);
 
-            scene.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
-                    scene.getId(),
-                    ViroEvents.ON_CAMERA_TRANSFORM_UPDATE,
-                    event);
+            sendEvent(scene, ViroEvents.ON_CAMERA_TRANSFORM_UPDATE, event);
         }
     }
+
+    /**
+     * Sends an event that doesn't go through the GestureEventCoalescer, after any gesture events
+     * still pending for the component, so that JS receives them in order.
+     */
+    private static void sendEvent(VRTComponent component, String eventName, WritableMap event) {
+        GestureEventCoalescer.getInstance().flush(component);
+        component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
+                component.getId(),
+                eventName,
+                event);
+    }
 }
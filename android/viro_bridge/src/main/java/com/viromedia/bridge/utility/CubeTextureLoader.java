@@ -0,0 +1,349 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.UiThread;
+
+import com.facebook.common.references.CloseableReference;
+import com.viro.core.Texture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads cube map {@link Texture}s from six face images.
+ *
+ * The six faces are fetched and decoded in parallel on the shared {@link ImageDecodeScheduler}
+ * pool. The resulting cube texture is shared through the {@link TextureCache}, keyed by its face
+ * uris, so skyboxes in different scenes or portals using the same faces share one texture.
+ * Concurrent requests for the same cube wait on a single load, whose face fetches are cancelled
+ * once every request for it has been cancelled.
+ */
+public class CubeTextureLoader {
+    private static final String TAG = ViroLog.getTag(CubeTextureLoader.class);
+    public static final String[] FACES = {"px", "nx", "py", "ny", "pz", "nz"};
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // Loads in progress by cache key, guarded by itself.
+    private static final Map<TextureCache.Key, PendingLoad> sPendingLoads = new HashMap<>();
+
+    /**
+     * Loads the cube texture with the given face uris, ordered as {@link #FACES}. The listener
+     * is called on the main thread with a texture it holds a reference to, and must
+     * {@link TextureCache#release} it.
+     *
+     * @return a handle to cancel the request with. Once every listener of a load has cancelled,
+     * its face fetches are cancelled too.
+     */
+    public static LoadHandle getCubeTextureAsync(Uri[] faceUris, Texture.Format format,
+                                                 final Listener listener, Context context) {
+        if (faceUris.length != FACES.length) {
+            throw new IllegalArgumentException("A cube map needs exactly " + FACES.length + " faces.");
+        }
+
+        // Cube faces can't be larger than the GPU's max texture size
+        int targetSize = Helper.getMaxTextureSize();
+        String[] faces = new String[faceUris.length];
+        for (int i = 0; i < faceUris.length; i++) {
+            faces[i] = faceUris[i].toString();
+        }
+        TextureCache.Key key = TextureCache.keyForCube(faces, format, targetSize);
+
+        final PendingLoad load;
+        synchronized (sPendingLoads) {
+            final TextureCache.CachedTexture cached = TextureCache.acquire(key);
+            if (cached != null) {
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (listener.isValid()) {
+                            listener.completed(cached);
+                        } else {
+                            TextureCache.release(cached);
+                        }
+                    }
+                });
+                return new LoadHandle(null, listener);
+            }
+
+            PendingLoad existing = sPendingLoads.get(key);
+            if (existing != null) {
+                existing.mListeners.add(listener);
+                return new LoadHandle(existing, listener);
+            }
+            load = new PendingLoad(key);
+            load.mListeners.add(listener);
+            sPendingLoads.put(key, load);
+        }
+
+        for (int i = 0; i < faceUris.length; i++) {
+            ImageDownloader downloader = new ImageDownloader(context);
+            downloader.setTextureFormat(format);
+            downloader.setTargetSize(targetSize);
+            ImageDownloader.FetchHandle handle =
+                    downloader.getImageReferenceAsync(faceUris[i], new FaceListener(load, i));
+            synchronized (load) {
+                if (load.mCancelled) {
+                    // Every listener left while the fetches were being started
+                    handle.cancel();
+                    continue;
+                }
+                load.mFetchHandles[i] = handle;
+            }
+        }
+        return new LoadHandle(load, listener);
+    }
+
+    /**
+     * Removes the given listener from its load, cancelling the load if it was the last one.
+     */
+    private static void cancel(PendingLoad load, Listener listener) {
+        synchronized (sPendingLoads) {
+            if (!load.mListeners.remove(listener) || !load.mListeners.isEmpty()) {
+                return;
+            }
+            if (sPendingLoads.get(load.mKey) == load) {
+                sPendingLoads.remove(load.mKey);
+            }
+        }
+
+        ImageDownloader.FetchHandle[] handles;
+        synchronized (load) {
+            load.mCancelled = true;
+            handles = load.mFetchHandles.clone();
+            Arrays.fill(load.mFetchHandles, null);
+        }
+        for (ImageDownloader.FetchHandle handle : handles) {
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+        closeFaces(load);
+    }
+
+    /**
+     * Creates the cube texture once all six faces are in, and hands it to every listener still
+     * waiting on it, on the main thread.
+     */
+    private static void loadDidFinish(PendingLoad load) {
+        List<Listener> validListeners = takeValidListeners(load);
+        synchronized (load) {
+            if (load.mCancelled) {
+                return;
+            }
+        }
+
+        int size = load.mFaces[0].get().getWidth();
+        for (CloseableReference<Bitmap> face : load.mFaces) {
+            if (face.get().getWidth() != size || face.get().getHeight() != size) {
+                closeFaces(load);
+                failListeners(validListeners, "Error loading cube map. Cube map must be square and uniformly sized");
+                return;
+            }
+        }
+
+        if (validListeners.isEmpty()) {
+            closeFaces(load);
+            return;
+        }
+
+        Bitmap[] bitmaps = new Bitmap[load.mFaces.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = load.mFaces[i].get();
+        }
+        // The native Images hold their own copy of the pixels, so the bitmaps can go back now
+        TextureCache.CachedTexture cached = TextureCache.acquireCube(load.mKey, bitmaps);
+        closeFaces(load);
+
+        for (int i = 0; i < validListeners.size(); i++) {
+            // The first listener takes the reference acquired above, the rest take their own.
+            validListeners.get(i).completed(i == 0 ? cached : TextureCache.acquire(load.mKey));
+        }
+    }
+
+    private static void loadDidFail(PendingLoad load, String error) {
+        List<Listener> validListeners = takeValidListeners(load);
+        ImageDownloader.FetchHandle[] handles;
+        synchronized (load) {
+            handles = load.mFetchHandles.clone();
+        }
+        for (ImageDownloader.FetchHandle handle : handles) {
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+        closeFaces(load);
+        failListeners(validListeners, error);
+    }
+
+    private static List<Listener> takeValidListeners(PendingLoad load) {
+        List<Listener> validListeners = new ArrayList<>();
+        synchronized (sPendingLoads) {
+            if (sPendingLoads.get(load.mKey) == load) {
+                sPendingLoads.remove(load.mKey);
+            }
+            for (Listener listener : load.mListeners) {
+                if (listener.isValid()) {
+                    validListeners.add(listener);
+                }
+            }
+        }
+        return validListeners;
+    }
+
+    private static void failListeners(List<Listener> listeners, String error) {
+        ViroLog.warn(TAG, error);
+        for (Listener listener : listeners) {
+            listener.failed(error);
+        }
+    }
+
+    private static void closeFaces(PendingLoad load) {
+        synchronized (load) {
+            for (int i = 0; i < load.mFaces.length; i++) {
+                if (load.mFaces[i] != null) {
+                    load.mFaces[i].close();
+                    load.mFaces[i] = null;
+                }
+            }
+        }
+    }
+
+    private static final class PendingLoad {
+        private final TextureCache.Key mKey;
+        private final List<Listener> mListeners = new ArrayList<>();
+        // Guarded by the PendingLoad itself.
+        @SuppressWarnings("unchecked")
+        private final CloseableReference<Bitmap>[] mFaces = new CloseableReference[FACES.length];
+        private final ImageDownloader.FetchHandle[] mFetchHandles = new ImageDownloader.FetchHandle[FACES.length];
+        private int mRemainingFaces = FACES.length;
+        private boolean mFailed = false;
+        // Set once every listener has cancelled.
+        private boolean mCancelled = false;
+
+        private PendingLoad(TextureCache.Key key) {
+            mKey = key;
+        }
+    }
+
+    private static final class FaceListener implements ImageReferenceListener {
+        private final PendingLoad mLoad;
+        private final int mFace;
+
+        private FaceListener(PendingLoad load, int face) {
+            mLoad = load;
+            mFace = face;
+        }
+
+        @Override
+        public boolean isValid() {
+            synchronized (mLoad) {
+                return !mLoad.mFailed && !mLoad.mCancelled;
+            }
+        }
+
+        @Override
+        public void completed(CloseableReference<Bitmap> result) {
+            boolean allFacesLoaded;
+            synchronized (mLoad) {
+                if (mLoad.mFailed || mLoad.mCancelled) {
+                    result.close();
+                    return;
+                }
+                mLoad.mFaces[mFace] = result;
+                mLoad.mRemainingFaces--;
+                allFacesLoaded = mLoad.mRemainingFaces == 0;
+            }
+
+            if (allFacesLoaded) {
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadDidFinish(mLoad);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void failed(final String error) {
+            synchronized (mLoad) {
+                if (mLoad.mFailed || mLoad.mCancelled) {
+                    return;
+                }
+                mLoad.mFailed = true;
+            }
+
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    loadDidFail(mLoad, "Unable to load cube map face [" + FACES[mFace] + "]: " + error);
+                }
+            });
+        }
+    }
+
+    /**
+     * A request for a cube texture, returned so that it can be cancelled.
+     */
+    public static final class LoadHandle {
+        private final PendingLoad mLoad;
+        private final Listener mListener;
+
+        private LoadHandle(PendingLoad load, Listener listener) {
+            mLoad = load;
+            mListener = listener;
+        }
+
+        public void cancel() {
+            if (mLoad != null) {
+                CubeTextureLoader.cancel(mLoad, mListener);
+            }
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Whether or not the listener is still valid
+         */
+        @UiThread
+        public boolean isValid();
+
+        /**
+         * Called with the loaded cube texture.
+         */
+        public void completed(TextureCache.CachedTexture result);
+
+        /**
+         * Called if any of the faces couldn't be loaded.
+         */
+        public void failed(String error);
+    }
+}
@@ -0,0 +1,291 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-private disk cache of images already decoded (and downsampled) into the raw pixels of
+ * their bitmap config. These are uncompressed pixels, not GPU-compressed (ETC2/ASTC) data: the
+ * renderer only accepts Bitmap-backed images, so loading an entry still copies the pixels from
+ * the mapped file into a new bitmap. What it saves is the PNG/JPEG decode and resize.
+ *
+ * Only images on the device are cached (see {@link #getSourceVersion}), as remote images can
+ * change without us being able to tell. Entries are keyed by a hash of the source uri plus the
+ * bitmap config and target size, and record the version of the source they were decoded from;
+ * an entry whose source has since changed is discarded. The least recently used entries are
+ * deleted once the cache grows past its size limit.
+ */
+public class DecodedImageDiskCache {
+    private static final String TAG = ViroLog.getTag(DecodedImageDiskCache.class);
+    private static final String DIRECTORY_NAME = "viro_decoded_images";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x5652544D; // "VRTM"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 6 * 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String RESOURCE_SCHEME = "res";
+    private static final String ASSET_SCHEME = "asset";
+    private static final String FILE_SCHEME = "file";
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static DecodedImageDiskCache sInstance;
+
+    public static synchronized DecodedImageDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DecodedImageDiskCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes = DEFAULT_MAX_BYTES;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private DecodedImageDiskCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns a string that changes whenever the contents of the given image may have changed,
+     * or null if the image can't be cached. Files are versioned by their size and modification
+     * time, and resources and assets by the time the app was last installed or updated. Anything
+     * else (e.g. http or content uris) returns null.
+     */
+    public static String getSourceVersion(Context context, Uri uri) {
+        String scheme = uri.getScheme();
+        if (FILE_SCHEME.equalsIgnoreCase(scheme)) {
+            if (uri.getPath() == null) {
+                return null;
+            }
+            File file = new File(uri.getPath());
+            if (!file.isFile()) {
+                return null;
+            }
+            return "file:" + file.length() + ":" + file.lastModified();
+        } else if (RESOURCE_SCHEME.equalsIgnoreCase(scheme) || ASSET_SCHEME.equalsIgnoreCase(scheme)) {
+            try {
+                return "apk:" + context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a new bitmap holding the cached pixels for the given image, or null on a miss.
+     * Entries written for a different source version are discarded.
+     */
+    public Bitmap read(String uri, String sourceVersion, Bitmap.Config config, int targetSize) {
+        File file = getFile(uri, config, targetSize);
+        if (!file.exists()) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Bad header");
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int configOrdinal = buffer.getInt();
+            int versionLength = buffer.getInt();
+            if (configOrdinal != config.ordinal() || width <= 0 || height <= 0
+                    || versionLength < 0 || versionLength > buffer.remaining()) {
+                throw new IOException("Mismatched header");
+            }
+            byte[] versionBytes = new byte[versionLength];
+            buffer.get(versionBytes);
+            if (!new String(versionBytes, UTF_8).equals(sourceVersion)) {
+                throw new IOException("Source has changed");
+            }
+
+            Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+            ByteBuffer pixels = buffer.slice();
+            if (pixels.remaining() < bitmap.getByteCount()) {
+                bitmap.recycle();
+                throw new IOException("Truncated pixels");
+            }
+            bitmap.copyPixelsFromBuffer(pixels);
+
+            file.setLastModified(System.currentTimeMillis());
+            mHits.incrementAndGet();
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            ViroLog.warn(TAG, "Discarding unreadable cache entry for [" + uri + "]: " + e.getMessage());
+            file.delete();
+            mMisses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given bitmap's pixels for the given version of the given image, replacing any
+     * previous entry.
+     */
+    public void write(String uri, String sourceVersion, Bitmap.Config config, int targetSize,
+                      Bitmap bitmap) {
+        if (bitmap.getConfig() != config || (!mDirectory.exists() && !mDirectory.mkdirs())) {
+            return;
+        }
+
+        File file = getFile(uri, config, targetSize);
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX + Thread.currentThread().getId());
+        byte[] versionBytes = sourceVersion.getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + versionBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bitmap.getWidth()).putInt(bitmap.getHeight())
+                .putInt(config.ordinal()).putInt(versionBytes.length).put(versionBytes);
+        header.flip();
+        ByteBuffer pixels = ByteBuffer.allocateDirect(bitmap.getByteCount());
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.flip();
+
+        try (FileOutputStream output = new FileOutputStream(tempFile);
+             FileChannel channel = output.getChannel()) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (pixels.hasRemaining()) {
+                channel.write(pixels);
+            }
+        } catch (IOException e) {
+            ViroLog.warn(TAG, "Unable to cache decoded image [" + uri + "]: " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        // Readers never see a partially written entry
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Deletes every entry of the given image, whatever its config and target size.
+     */
+    public void remove(String uri) {
+        final String prefix = hash(uri) + "_";
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    private synchronized void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (size <= mMaxBytes) {
+                break;
+            }
+            size -= file.length();
+            file.delete();
+        }
+    }
+
+    private File getFile(String uri, Bitmap.Config config, int targetSize) {
+        return new File(mDirectory, hash(uri) + "_" + config.name() + "_" + targetSize);
+    }
+
+    static String hash(String uri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(uri.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(uri.hashCode());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.uimanager.events.RCTEventEmitter;
+import com.viromedia.bridge.component.VRTComponent;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Coalesces high frequency gesture events (drags, pinches, etc.) so that at most one event per
+ * component and event type reaches JS each frame, carrying the latest state of the gesture.
+ *
+ * Continuous updates only overwrite the component's {@link PendingEvent}, which is sent on the
+ * next frame. Transitions (e.g. a pinch starting or ending) are never dropped: they first flush
+ * every event pending for their component, then are sent right away. Events sent to a component
+ * outside the coalescer must likewise be preceded by {@link #flush}.
+ */
+public class GestureEventCoalescer implements Choreographer.FrameCallback {
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static GestureEventCoalescer sInstance;
+
+    public static synchronized GestureEventCoalescer getInstance() {
+        if (sInstance == null) {
+            sInstance = new GestureEventCoalescer();
+        }
+        return sInstance;
+    }
+
+    // Events waiting for the next frame, in the order they were first updated. Guarded by this.
+    private final Set<PendingEvent> mPendingEvents = new LinkedHashSet<>();
+    private boolean mFrameScheduled = false;
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(GestureEventCoalescer.this);
+        }
+    };
+
+    private GestureEventCoalescer() {
+    }
+
+    /**
+     * Updates the given event with the latest state of its gesture. Continuous updates are sent
+     * on the next frame, replacing any update still pending; transitions are sent immediately,
+     * after every event still pending for the same component.
+     */
+    public synchronized void update(PendingEvent event, int source, int state, float x, float y,
+                                    float z, boolean transition) {
+        if (!transition) {
+            event.set(source, state, x, y, z);
+            if (mPendingEvents.add(event) && !mFrameScheduled) {
+                mFrameScheduled = true;
+                sMainHandler.post(mScheduleFrame);
+            }
+            return;
+        }
+
+        flushLocked(event.mComponent.get());
+        event.set(source, state, x, y, z);
+        event.send(event.createEvent());
+    }
+
+    /**
+     * Sends every event pending for the given component right away. Must be called before
+     * sending the component any event that doesn't go through the coalescer (clicks, hovers,
+     * etc.), so that JS receives its events in the order they happened.
+     */
+    public synchronized void flush(VRTComponent component) {
+        flushLocked(component);
+    }
+
+    private void flushLocked(VRTComponent component) {
+        if (component == null || mPendingEvents.isEmpty()) {
+            return;
+        }
+        Iterator<PendingEvent> iterator = mPendingEvents.iterator();
+        while (iterator.hasNext()) {
+            PendingEvent event = iterator.next();
+            if (event.mComponent.get() == component) {
+                iterator.remove();
+                event.send(event.createEvent());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void doFrame(long frameTimeNanos) {
+        // Events are sent with the coalescer locked, so that a flush on another thread can't
+        // overtake them
+        mFrameScheduled = false;
+        for (PendingEvent event : mPendingEvents) {
+            event.send(event.createEvent());
+        }
+        mPendingEvents.clear();
+    }
+
+    /**
+     * The latest state of one type of gesture event on one component. Subclasses build the
+     * event sent to JS from it.
+     */
+    public static abstract class PendingEvent {
+        private final WeakReference<VRTComponent> mComponent;
+        private final String mEventName;
+        protected int mSource;
+        protected int mState;
+        protected float mX;
+        protected float mY;
+        protected float mZ;
+
+        public PendingEvent(WeakReference<VRTComponent> component, String eventName) {
+            mComponent = component;
+            mEventName = eventName;
+        }
+
+        private void set(int source, int state, float x, float y, float z) {
+            mSource = source;
+            mState = state;
+            mX = x;
+            mY = y;
+            mZ = z;
+        }
+
+        /**
+         * Creates the event to send from the current state. Called with the coalescer locked.
+         */
+        protected abstract WritableMap createEvent();
+
+        private void send(WritableMap event) {
+            VRTComponent component = mComponent.get();
+            if (component == null) {
+                return;
+            }
+            component.getReactContext().getJSModule(RCTEventEmitter.class).receiveEvent(
+                    component.getId(),
+                    mEventName,
+                    event);
+        }
+    }
+}
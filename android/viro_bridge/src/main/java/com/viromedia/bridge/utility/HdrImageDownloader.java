@@ -23,77 +23,141 @@ package com.viromedia.bridge.utility;
 
 import android.content.Context;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.UiThread;
 import android.util.Log;
 import com.facebook.react.bridge.ReadableMap;
 import com.viro.core.Texture;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Helper class for downloading HDR image data into a {@link Texture} object.
+ *
+ * HDR images are parsed on the shared {@link ImageDecodeScheduler} pool. Concurrent requests for
+ * the same uri wait on a single load, and the resulting texture is shared through the
+ * {@link TextureCache}, so a 360 background and a lighting environment using the same file
+ * share one texture.
  */
 public class HdrImageDownloader {
     private static final String TAG = ViroLog.getTag(HdrImageDownloader.class);
     private static final String URI_KEY = "uri";
     private static final String HDR_KEY = ".hdr";
 
-    public static void getHdrTextureAsync(ReadableMap map, DownloadListener listener, Context context) {
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // Loads in progress by cache key, guarded by itself.
+    private static final Map<TextureCache.Key, List<DownloadListener>> sPendingLoads = new HashMap<>();
+
+    /**
+     * Loads the HDR texture at the given source. The listener is called on the main thread
+     * with a texture it holds a reference to, and must {@link TextureCache#release} it.
+     */
+    public static void getHdrTextureAsync(ReadableMap map, final DownloadListener listener, Context context) {
         if (!map.hasKey(URI_KEY)) {
             throw new IllegalArgumentException("Missing HDR uri file path.");
         }
 
-        Uri hdrUri = Helper.parseUri(map.getString(URI_KEY), context);
-        if (hdrUri == null || hdrUri.getPath() == null ) {
+        final Uri uri = Helper.parseUri(map.getString(URI_KEY), context);
+        if (uri == null || uri.getPath() == null ) {
             throw new IllegalArgumentException("Invalid HDR uri file path provided.");
         }
 
-        Uri uri = Helper.parseUri(map.getString(URI_KEY), context);
-        DownloadHDRAsyncTask task = new DownloadHDRAsyncTask(listener);
-        task.execute(uri);
-    }
-
-    /**
-     * Async Task for downloading and initializing HDR Image data into a Texture object on
-     * the background thread.
-     */
-    private static class DownloadHDRAsyncTask extends AsyncTask<Uri, Integer, Texture> {
-        private DownloadListener mListener;
+        final TextureCache.Key key = getTextureCacheKey(uri);
+        synchronized (sPendingLoads) {
+            final TextureCache.CachedTexture cached = TextureCache.acquire(key);
+            if (cached != null) {
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (listener.isValid()) {
+                            listener.completed(cached);
+                        } else {
+                            TextureCache.release(cached);
+                        }
+                    }
+                });
+                return;
+            }
 
-        private DownloadHDRAsyncTask(DownloadListener listener) {
-            mListener = listener;
+            List<DownloadListener> listeners = sPendingLoads.get(key);
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            sPendingLoads.put(key, listeners);
         }
 
-        protected Texture doInBackground(Uri... uriArray) {
-            if (uriArray.length == 0) {
-                return null;
+        ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                final Texture texture = Texture.loadRadianceHDRTexture(uri);
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadDidFinish(key, texture);
+                    }
+                });
             }
+        });
+    }
 
-            // Do a sanity check.
-            Uri uri = uriArray[0];
-            if (uri == null || uri.getPath() == null) {
-                Log.e(TAG,"Invalid HDR uri file path provided when executing download hdr task!");
-                return null;
+    /**
+     * Hands the loaded texture to every listener still waiting on it, on the main thread.
+     */
+    private static void loadDidFinish(TextureCache.Key key, Texture texture) {
+        List<DownloadListener> validListeners = new ArrayList<>();
+        synchronized (sPendingLoads) {
+            List<DownloadListener> listeners = sPendingLoads.remove(key);
+            if (listeners != null) {
+                for (DownloadListener listener : listeners) {
+                    if (listener.isValid()) {
+                        validListeners.add(listener);
+                    }
+                }
             }
-
-            return Texture.loadRadianceHDRTexture(uri);
         }
 
-        protected void onPostExecute(Texture result) {
-            if (mListener == null || !mListener.isValid()) {
-                return;
+        if (texture == null) {
+            Log.e(TAG, "Unable to load HDR texture.");
+            for (DownloadListener listener : validListeners) {
+                listener.completed(null);
             }
+            return;
+        }
+
+        if (validListeners.isEmpty()) {
+            texture.dispose();
+            return;
+        }
 
-            mListener.completed(result);
+        TextureCache.CachedTexture cached = TextureCache.acquire(key, texture);
+        for (int i = 0; i < validListeners.size(); i++) {
+            // The first listener takes the reference acquired above, the rest take their own.
+            validListeners.get(i).completed(i == 0 ? cached : TextureCache.acquire(key));
         }
     }
 
+    private static TextureCache.Key getTextureCacheKey(Uri uri) {
+        return new TextureCache.Key(uri.toString(), Texture.Format.RGB9_E5, false, null, 0);
+    }
+
     public interface DownloadListener {
         /**
          * Whether or not the download listener is still valid
          */
         @UiThread
         public boolean isValid();
-        public void completed(Texture result);
+
+        /**
+         * Called with the loaded texture, or null if it couldn't be loaded.
+         */
+        public void completed(TextureCache.CachedTexture result);
     }
 
 }
@@ -23,6 +23,12 @@ package com.viromedia.bridge.utility;
 
 import android.content.Context;
 import android.net.Uri;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
 import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReadableArray;
@@ -36,6 +42,9 @@ import com.viro.core.Vector;
 public class Helper {
 
     private static final String RESOURCE_SCHEME = "res";
+    // Every device we support can do at least this much; used if the GPU can't be queried.
+    private static final int DEFAULT_MAX_TEXTURE_SIZE = 4096;
+    private static int sMaxTextureSize = 0;
 
     public static float[] toFloatArray(@Nullable ReadableArray value, float[] defaultValue) {
         float[] parsedValue = toFloatArray(value);
@@ -75,6 +84,54 @@ public class Helper {
                 Math.toRadians(degreesArray[1]), Math.toRadians(degreesArray[2]));
     }
 
+    /**
+     * Returns the largest texture dimension the GPU supports. The first call queries the
+     * driver through a throwaway pbuffer context, so it must not be made from the GL thread.
+     */
+    public static synchronized int getMaxTextureSize() {
+        if (sMaxTextureSize > 0) {
+            return sMaxTextureSize;
+        }
+
+        int maxSize = 0;
+        EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (display != EGL14.EGL_NO_DISPLAY && EGL14.eglInitialize(display, version, 0, version, 1)) {
+            int[] configAttribs = {
+                    EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                    EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                    EGL14.EGL_NONE
+            };
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] numConfigs = new int[1];
+            if (EGL14.eglChooseConfig(display, configAttribs, 0, configs, 0, 1, numConfigs, 0) && numConfigs[0] > 0) {
+                int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+                int[] surfaceAttribs = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+                EGLContext context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+                EGLSurface surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttribs, 0);
+
+                if (context != EGL14.EGL_NO_CONTEXT && surface != EGL14.EGL_NO_SURFACE
+                        && EGL14.eglMakeCurrent(display, surface, surface, context)) {
+                    int[] size = new int[1];
+                    GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, size, 0);
+                    maxSize = size[0];
+                    EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                }
+
+                if (surface != EGL14.EGL_NO_SURFACE) {
+                    EGL14.eglDestroySurface(display, surface);
+                }
+                if (context != EGL14.EGL_NO_CONTEXT) {
+                    EGL14.eglDestroyContext(display, context);
+                }
+            }
+            // The display is shared with the renderer, so it is not terminated here.
+        }
+
+        sMaxTextureSize = maxSize > 0 ? maxSize : DEFAULT_MAX_TEXTURE_SIZE;
+        return sMaxTextureSize;
+    }
+
     /**
      * This method takes a path and creates a Uri for it. If given a normal http path,
      * it'll leave it alone, but given a resource file name (that React gives us), it'll
@@ -0,0 +1,191 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.os.Process;
+
+import com.facebook.imagepipeline.common.Priority;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide scheduler for the image work done by {@link ImageDownloader}. All downloaders
+ * share one bounded pool sized to the device's CPU count, and queued work is run in
+ * {@link Lane} order so that images on screen are never stuck behind prefetches.
+ */
+public class ImageDecodeScheduler {
+    private static final String TAG = ViroLog.getTag(ImageDecodeScheduler.class);
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The priority lanes, from most to least urgent.
+     */
+    public enum Lane {
+        // Placeholders are small, local and shown before their main image.
+        PLACEHOLDER(Priority.HIGH),
+        VISIBLE(Priority.HIGH),
+        AR_TARGET(Priority.MEDIUM),
+        PREFETCH(Priority.LOW);
+
+        private final Priority mRequestPriority;
+
+        Lane(Priority requestPriority) {
+            mRequestPriority = requestPriority;
+        }
+
+        /**
+         * The priority Fresco should give the fetch behind work in this lane.
+         */
+        public Priority getRequestPriority() {
+            return mRequestPriority;
+        }
+    }
+
+    private static ImageDecodeScheduler sInstance;
+
+    public static synchronized ImageDecodeScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageDecodeScheduler(
+                    Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return sInstance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Executor[] mLaneExecutors;
+    private final AtomicInteger[] mQueueDepths;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private ImageDecodeScheduler(int parallelism) {
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        Lane[] lanes = Lane.values();
+        mLaneExecutors = new Executor[lanes.length];
+        mQueueDepths = new AtomicInteger[lanes.length];
+        for (final Lane lane : lanes) {
+            mQueueDepths[lane.ordinal()] = new AtomicInteger();
+            mLaneExecutors[lane.ordinal()] = new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    submit(lane, runnable);
+                }
+            };
+        }
+        ViroLog.debug(TAG, "Created image decode scheduler with parallelism " + parallelism);
+    }
+
+    /**
+     * Returns an {@link Executor} that runs its work in the given lane.
+     */
+    public Executor executorFor(Lane lane) {
+        return mLaneExecutors[lane.ordinal()];
+    }
+
+    public void submit(Lane lane, Runnable runnable) {
+        mQueueDepths[lane.ordinal()].incrementAndGet();
+        mExecutor.execute(new LaneTask(lane, mSequence.getAndIncrement(), runnable));
+    }
+
+    /**
+     * Number of tasks in the given lane that are waiting for a worker.
+     */
+    public int getQueueDepth(Lane lane) {
+        return mQueueDepths[lane.ordinal()].get();
+    }
+
+    /**
+     * Number of tasks, across all lanes, that are waiting for a worker.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (AtomicInteger laneDepth : mQueueDepths) {
+            depth += laneDepth.get();
+        }
+        return depth;
+    }
+
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    public long getCompletedTaskCount() {
+        return mExecutor.getCompletedTaskCount();
+    }
+
+    public int getParallelism() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    private class LaneTask implements Runnable, Comparable<LaneTask> {
+        private final Lane mLane;
+        private final long mSequenceNumber;
+        private final Runnable mRunnable;
+
+        private LaneTask(Lane lane, long sequenceNumber, Runnable runnable) {
+            mLane = lane;
+            mSequenceNumber = sequenceNumber;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            mQueueDepths[mLane.ordinal()].decrementAndGet();
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(LaneTask other) {
+            if (mLane != other.mLane) {
+                return mLane.ordinal() < other.mLane.ordinal() ? -1 : 1;
+            }
+            // Within a lane, run work in the order it was submitted.
+            return Long.compare(mSequenceNumber, other.mSequenceNumber);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ViroImageDecode-" + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -24,15 +24,20 @@ package com.viromedia.bridge.utility;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
 import android.net.Uri;
+import android.os.Build;
 import android.util.Log;
+import androidx.annotation.RequiresApi;
 
 import com.facebook.common.references.CloseableReference;
 import com.facebook.datasource.BaseDataSubscriber;
 import com.facebook.datasource.DataSource;
 import com.facebook.datasource.DataSubscriber;
 import com.facebook.drawee.backends.pipeline.Fresco;
-import com.facebook.imagepipeline.core.DefaultExecutorSupplier;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.core.ImagePipeline;
 import com.facebook.imagepipeline.image.BaseCloseableStaticBitmap;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -41,20 +46,49 @@ import com.facebook.imagepipeline.request.ImageRequestBuilder;
 import com.facebook.react.bridge.ReadableMap;
 import com.viro.core.Texture;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class downloads images and returns them as @{link Bitmap} objects
  * by leveraging the Facebook Fresco image downloading/caching library.
+ *
+ * Images are decoded directly into the {@link Bitmap.Config} matching the texture format.
+ * {@link ImageReferenceListener}s are given a reference to that decoded bitmap, while
+ * {@link ImageDownloadListener}s and synchronous callers receive a copy they fully own.
+ *
+ * Concurrent requests for the same image, format and target size share a single fetch, which
+ * is cancelled once every listener waiting on it has been invalidated.
+ *
+ * Local images stored uncompressed (see {@link LocalAssets}) are decoded straight out of their
+ * memory-mapped files where the platform allows it, and only go through Fresco otherwise.
  */
 public class ImageDownloader {
     private static final String TAG = ViroLog.getTag(ImageDownloader.class);
     private static final String URI_KEY = "uri";
+    // Longest edge, in pixels, of the first preview shown for progressively loaded images
+    private static final int PREVIEW_THUMBNAIL_SIZE = 128;
     private final Context mContext;
     private final ConcurrentHashMap<CountDownLatch, Bitmap> mImageMap;
-    private final DefaultExecutorSupplier mExecutorSupplier;
     private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private ImageDecodeScheduler.Lane mLane = ImageDecodeScheduler.Lane.VISIBLE;
+    // Fetches in progress across all downloaders, so that concurrent requests share one.
+    private static final Map<FetchKey, InFlightFetch> sInFlightFetches = new HashMap<>();
+    private static final AtomicLong sCancelledRequests = new AtomicLong();
+    private static final AtomicLong sCancelledFetches = new AtomicLong();
+    private static final AtomicLong sWastedDecodes = new AtomicLong();
+    private static final AtomicLong sCompletedFetches = new AtomicLong();
+    private static volatile boolean sDiskCacheEnabled = false;
+    private static volatile Context sDiskCacheContext;
+    private int mTargetSize = 0;
 
     public static void evictFromCache(ReadableMap map, Context context) {
         if (!map.hasKey(URI_KEY)) {
@@ -66,13 +100,58 @@ public class ImageDownloader {
     public static void evictFromCache(Uri uri) {
         ImagePipeline pipeline = Fresco.getImagePipeline();
         pipeline.evictFromCache(uri);
+        if (sDiskCacheEnabled && sDiskCacheContext != null) {
+            DecodedImageDiskCache.getInstance(sDiskCacheContext).remove(uri.toString());
+        }
+    }
+
+    /**
+     * Enables the {@link DecodedImageDiskCache} for every downloader. Decoded images stored on
+     * the device are then also persisted as raw pixels in their texture's bitmap config, and
+     * later fetches of the same unchanged image, format and target size load those pixels instead
+     * of decoding the source again. Remote images are never cached.
+     */
+    public static void setDiskCacheEnabled(Context context, boolean enabled) {
+        sDiskCacheContext = context.getApplicationContext();
+        sDiskCacheEnabled = enabled;
+    }
+
+    /**
+     * Rounds the given size in pixels up to a power of two, capped at the GPU's max texture
+     * size, for use with {@link #setTargetSize(int)}. Rounding lets components of slightly
+     * different sizes share one texture.
+     */
+    public static int getTargetSize(float pixels) {
+        int maxSize = Helper.getMaxTextureSize();
+        int size = (int) Math.ceil(pixels);
+        if (size <= 1) {
+            return 1;
+        }
+        if (size >= maxSize) {
+            return maxSize;
+        }
+        return Math.min(Integer.highestOneBit(size - 1) << 1, maxSize);
+    }
+
+    /**
+     * Returns the smaller sizes, smallest first, to decode and show while an image of the given
+     * target size (0 for unbounded) loads progressively. Empty if the image is small enough to
+     * just load at full size.
+     */
+    public static int[] getPreviewTargetSizes(int targetSize) {
+        int fullSize = targetSize > 0 ? targetSize : Helper.getMaxTextureSize();
+        int intermediateSize = fullSize / 4;
+        if (fullSize <= PREVIEW_THUMBNAIL_SIZE * 2) {
+            return new int[0];
+        } else if (intermediateSize <= PREVIEW_THUMBNAIL_SIZE * 2) {
+            return new int[] {PREVIEW_THUMBNAIL_SIZE};
+        }
+        return new int[] {PREVIEW_THUMBNAIL_SIZE, intermediateSize};
     }
 
     public ImageDownloader(Context context) {
         mContext = context;
         mImageMap = new ConcurrentHashMap<>();
-        mExecutorSupplier = new DefaultExecutorSupplier(1);
-
     }
 
     /**
@@ -117,23 +196,450 @@ public class ImageDownloader {
      *
      * @param map a ReadableMap with a "uri" key, ideally the same one we get from the JS layer
      * @param listener object that will be called once the image is fetched.
+     * @return a handle that cancels the fetch, or null if no listener was given.
+     */
+    public FetchHandle getImageAsync(ReadableMap map, ImageDownloadListener listener) {
+        if (listener == null) {
+            ViroLog.warn(TAG, "The given ImageDownloadListener is null. Doing nothing.");
+            return null;
+        }
+
+        if (!map.hasKey(URI_KEY)) {
+            throw new IllegalArgumentException("Unable to find \"uri\" key in given source map.");
+        }
+
+        return getImage(Helper.parseUri(map.getString(URI_KEY), mContext), null, listener);
+    }
+
+    /**
+     * This method fetches an image asynchrously
+     *
+     * @param uri a URI representing the location of the image to fetch.
+     * @param listener object that will be called once the image is fetched.
+     * @return a handle that cancels the fetch, or null if no listener was given.
      */
-    public void getImageAsync(ReadableMap map, ImageDownloadListener listener) {
+    public FetchHandle getImageAsync(Uri uri, ImageDownloadListener listener) {
         if (listener == null) {
             ViroLog.warn(TAG, "The given ImageDownloadListener is null. Doing nothing.");
-            return;
+            return null;
+        }
+
+        return getImage(uri, null, listener);
+    }
+
+    /**
+     * This method fetches an image asynchronously, handing the listener the decoded bitmap
+     * itself rather than a copy of it.
+     *
+     * @param map a ReadableMap with a "uri" key, ideally the same one we get from the JS layer
+     * @param listener object that will be given ownership of the decoded bitmap.
+     * @return a handle that cancels the fetch, or null if no listener was given.
+     */
+    public FetchHandle getImageReferenceAsync(ReadableMap map, ImageReferenceListener listener) {
+        if (listener == null) {
+            ViroLog.warn(TAG, "The given ImageReferenceListener is null. Doing nothing.");
+            return null;
         }
 
         if (!map.hasKey(URI_KEY)) {
             throw new IllegalArgumentException("Unable to find \"uri\" key in given source map.");
         }
 
-        getImage(Helper.parseUri(map.getString(URI_KEY), mContext), null, listener);
+        return getImageReferenceAsync(Helper.parseUri(map.getString(URI_KEY), mContext), listener);
+    }
+
+    /**
+     * This method fetches an image asynchronously, handing the listener the decoded bitmap
+     * itself rather than a copy of it.
+     *
+     * @param uri a URI representing the location of the image to fetch.
+     * @param listener object that will be given ownership of the decoded bitmap.
+     * @return a handle that cancels the fetch, or null if no listener was given.
+     */
+    public FetchHandle getImageReferenceAsync(Uri uri, ImageReferenceListener listener) {
+        if (listener == null) {
+            ViroLog.warn(TAG, "The given ImageReferenceListener is null. Doing nothing.");
+            return null;
+        }
+
+        return fetchDecodedBitmap(uri, listener);
     }
 
-    private void getImage(Uri uri, final CountDownLatch latch, final ImageDownloadListener listener) {
+    /**
+     * Warms Fresco's caches with the given image without delivering it anywhere. The encoded
+     * image is always fetched to the disk cache; if toMemoryCache is set it is also decoded into
+     * the bitmap memory cache, which only later fetches with this downloader's format and target
+     * size can hit.
+     *
+     * @return the data source tracking the prefetch, which the caller must close when finished.
+     */
+    public DataSource<Void> prefetch(Uri uri, boolean toMemoryCache) {
+        ImagePipeline imagePipeline = Fresco.getImagePipeline();
+        ImageRequest request = buildRequest(uri, mLane, mConfig, mTargetSize);
+        if (toMemoryCache) {
+            return imagePipeline.prefetchToBitmapCache(request, mContext);
+        }
+        return imagePipeline.prefetchToDiskCache(request, mContext, mLane.getRequestPriority());
+    }
+
+    /**
+     * Number of fetches currently in progress, shared fetches counted once.
+     */
+    public static int getInFlightFetchCount() {
+        synchronized (sInFlightFetches) {
+            return sInFlightFetches.size();
+        }
+    }
+
+    /**
+     * Number of fetch requests cancelled through their {@link FetchHandle}.
+     */
+    public static long getCancelledRequestCount() {
+        return sCancelledRequests.get();
+    }
+
+    /**
+     * Number of downloads and decodes stopped because nobody was waiting on them anymore.
+     */
+    public static long getCancelledFetchCount() {
+        return sCancelledFetches.get();
+    }
+
+    /**
+     * Number of images that were fully decoded only to be thrown away, because every
+     * listener was invalidated before the decode finished.
+     */
+    public static long getWastedDecodeCount() {
+        return sWastedDecodes.get();
+    }
+
+    /**
+     * Number of images decoded and delivered to at least one listener.
+     */
+    public static long getCompletedFetchCount() {
+        return sCompletedFetches.get();
+    }
+
+    /**
+     * Identifies the fetches that can be shared: same image, decoded the same way.
+     */
+    private static final class FetchKey {
+        private final String mUri;
+        private final Bitmap.Config mConfig;
+        private final int mTargetSize;
+
+        private FetchKey(String uri, Bitmap.Config config, int targetSize) {
+            mUri = uri;
+            mConfig = config;
+            mTargetSize = targetSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FetchKey)) {
+                return false;
+            }
+            FetchKey other = (FetchKey) o;
+            return mTargetSize == other.mTargetSize
+                    && mConfig == other.mConfig
+                    && mUri.equals(other.mUri);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mUri.hashCode();
+            result = 31 * result + (mConfig != null ? mConfig.hashCode() : 0);
+            result = 31 * result + mTargetSize;
+            return result;
+        }
+    }
+
+    /**
+     * A fetch in progress and the listeners waiting on it. Guarded by sInFlightFetches.
+     */
+    private static final class InFlightFetch {
+        private final FetchKey mKey;
+        private final List<ImageReferenceListener> mListeners = new ArrayList<>();
+        private DataSource<CloseableReference<CloseableImage>> mDataSource;
+        private boolean mFinished = false;
+
+        private InFlightFetch(FetchKey key) {
+            mKey = key;
+        }
+
+        /**
+         * Associates the Fresco fetch with this one, closing it right away if every listener
+         * already cancelled in the meantime.
+         */
+        private void attach(DataSource<CloseableReference<CloseableImage>> dataSource) {
+            synchronized (sInFlightFetches) {
+                if (!mFinished) {
+                    mDataSource = dataSource;
+                    return;
+                }
+            }
+            sCancelledFetches.incrementAndGet();
+            dataSource.close();
+        }
+
+        /**
+         * Removes the given listener, stopping the fetch if it was the last one waiting.
+         */
+        private void cancel(ImageReferenceListener listener) {
+            DataSource<CloseableReference<CloseableImage>> dataSource = null;
+            synchronized (sInFlightFetches) {
+                if (mFinished || !mListeners.remove(listener)) {
+                    return;
+                }
+                sCancelledRequests.incrementAndGet();
+                if (mListeners.isEmpty()) {
+                    markFinished();
+                    dataSource = mDataSource;
+                }
+            }
+
+            if (dataSource != null) {
+                sCancelledFetches.incrementAndGet();
+                dataSource.close();
+            }
+        }
+
+        private boolean isFinished() {
+            synchronized (sInFlightFetches) {
+                return mFinished;
+            }
+        }
+
+        /**
+         * Ends the fetch so no more listeners can join it, returning the listeners that are
+         * still valid (if requested).
+         */
+        private List<ImageReferenceListener> finish(boolean collectValidListeners) {
+            List<ImageReferenceListener> validListeners = new ArrayList<>();
+            synchronized (sInFlightFetches) {
+                if (mFinished) {
+                    return validListeners;
+                }
+                markFinished();
+                if (collectValidListeners) {
+                    for (ImageReferenceListener listener : mListeners) {
+                        if (listener.isValid()) {
+                            validListeners.add(listener);
+                        }
+                    }
+                }
+                mListeners.clear();
+            }
+            return validListeners;
+        }
+
+        /**
+         * Drops the listeners that were invalidated and ends the fetch if none are left.
+         *
+         * @return true if the fetch was ended and should be cancelled.
+         */
+        private boolean cancelIfUnused() {
+            synchronized (sInFlightFetches) {
+                if (mFinished) {
+                    return false;
+                }
+                Iterator<ImageReferenceListener> iterator = mListeners.iterator();
+                while (iterator.hasNext()) {
+                    if (!iterator.next().isValid()) {
+                        iterator.remove();
+                    }
+                }
+                if (!mListeners.isEmpty()) {
+                    return false;
+                }
+                markFinished();
+            }
+            sCancelledFetches.incrementAndGet();
+            return true;
+        }
+
+        private void markFinished() {
+            mFinished = true;
+            if (sInFlightFetches.get(mKey) == this) {
+                sInFlightFetches.remove(mKey);
+            }
+        }
+    }
+
+    /**
+     * Returned by the asynchronous fetch methods. Cancelling it guarantees the listener isn't
+     * called anymore, unless the result is already being delivered, and stops the download
+     * and decode if no other listener is waiting on the same image.
+     */
+    public static final class FetchHandle {
+        private final InFlightFetch mFetch;
+        private final ImageReferenceListener mListener;
+
+        private FetchHandle(InFlightFetch fetch, ImageReferenceListener listener) {
+            mFetch = fetch;
+            mListener = listener;
+        }
+
+        public void cancel() {
+            mFetch.cancel(mListener);
+        }
+    }
+
+    private FetchHandle getImage(Uri uri, final CountDownLatch latch, final ImageDownloadListener listener) {
+        // Callers of the Bitmap based API may hold on to the bitmap indefinitely, so it has to
+        // be copied out of Fresco's pool before the reference is released.
+        return fetchDecodedBitmap(uri, new ImageReferenceListener() {
+            @Override
+            public boolean isValid() {
+                return listener == null || listener.isValid();
+            }
+
+            @Override
+            public void completed(CloseableReference<Bitmap> result) {
+                Bitmap copy = result.get().copy(mConfig, true);
+                result.close();
+
+                if (listener != null) {
+                    listener.completed(copy);
+                } else {
+                    if (copy != null) {
+                        mImageMap.put(latch, copy);
+                    }
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void failed(String error) {
+                if (listener != null) {
+                    listener.failed(error);
+                } else {
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    private FetchHandle fetchDecodedBitmap(final Uri uri, ImageReferenceListener listener) {
+        final ImageDecodeScheduler.Lane lane = mLane;
+        final Bitmap.Config config = mConfig;
+        final int targetSize = mTargetSize;
+
+        // Join the fetch already in flight for this exact image, if there is one.
+        final FetchKey key = new FetchKey(uri.toString(), config, targetSize);
+        final InFlightFetch fetch;
+        synchronized (sInFlightFetches) {
+            InFlightFetch existing = sInFlightFetches.get(key);
+            if (existing != null) {
+                existing.mListeners.add(listener);
+                return new FetchHandle(existing, listener);
+            }
+            fetch = new InFlightFetch(key);
+            fetch.mListeners.add(listener);
+            sInFlightFetches.put(key, fetch);
+        }
+
+        final boolean local = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && LocalAssets.isLocal(uri);
+        final boolean cacheable = sDiskCacheEnabled && LocalAssets.isLocal(uri);
+        if (!cacheable && !local) {
+            startFetch(fetch, uri, lane, config, targetSize, null, null);
+            return new FetchHandle(fetch, listener);
+        }
+
+        // Look for an already decoded copy on disk, then try decoding local images in place,
+        // before going to Fresco
+        ImageDecodeScheduler.getInstance().submit(lane, new Runnable() {
+            @Override
+            public void run() {
+                if (fetch.isFinished()) {
+                    return;
+                }
+                String sourceVersion = cacheable ? DecodedImageDiskCache.getSourceVersion(mContext, uri) : null;
+                DecodedImageDiskCache diskCache = sourceVersion != null ? DecodedImageDiskCache.getInstance(mContext) : null;
+                Bitmap cached = diskCache != null ? diskCache.read(key.mUri, sourceVersion, config, targetSize) : null;
+                if (cached != null) {
+                    deliver(fetch.finish(true), CloseableReference.of(cached, SimpleBitmapReleaser.getInstance()));
+                    return;
+                }
+
+                Bitmap decoded = null;
+                if (local && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    decoded = decodeMapped(uri, config, targetSize);
+                }
+                if (decoded != null) {
+                    CloseableReference<Bitmap> bitmapReference =
+                            CloseableReference.of(decoded, SimpleBitmapReleaser.getInstance());
+                    if (diskCache != null) {
+                        writeToDiskCache(diskCache, key, sourceVersion, bitmapReference.clone());
+                    }
+                    deliver(fetch.finish(true), bitmapReference);
+                } else {
+                    startFetch(fetch, uri, lane, config, targetSize, diskCache, sourceVersion);
+                }
+            }
+        });
+        return new FetchHandle(fetch, listener);
+    }
+
+    /**
+     * Decodes a local image straight out of its memory-mapped file, without first copying the
+     * encoded bytes onto the heap as Fresco's local fetchers do. Returns null if the image isn't
+     * stored uncompressed or can't be decoded this way, in which case Fresco should be used.
+     */
+    @RequiresApi(Build.VERSION_CODES.P)
+    private Bitmap decodeMapped(Uri uri, final Bitmap.Config config, final int targetSize) {
+        ByteBuffer buffer = LocalAssets.map(mContext, uri);
+        if (buffer == null) {
+            return null;
+        }
+
+        Bitmap decoded;
+        try {
+            decoded = ImageDecoder.decodeBitmap(ImageDecoder.createSource(buffer),
+                    new ImageDecoder.OnHeaderDecodedListener() {
+                        @Override
+                        public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info,
+                                                    ImageDecoder.Source source) {
+                            // Textures are uploaded from the CPU, so hardware bitmaps won't do
+                            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                            if (config == Bitmap.Config.RGB_565) {
+                                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+                            }
+
+                            int width = info.getSize().getWidth();
+                            int height = info.getSize().getHeight();
+                            if (targetSize > 0 && Math.max(width, height) > targetSize) {
+                                float scale = (float) targetSize / Math.max(width, height);
+                                decoder.setTargetSize(Math.max(1, Math.round(width * scale)),
+                                        Math.max(1, Math.round(height * scale)));
+                            }
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            ViroLog.warn(TAG, "Unable to decode mapped image [" + uri + "], falling back to Fresco: " + e.getMessage());
+            return null;
+        }
+
+        if (decoded.getConfig() != config) {
+            Bitmap converted = decoded.copy(config, true);
+            decoded.recycle();
+            decoded = converted;
+        }
+        return decoded;
+    }
+
+    /**
+     * Fetches the image for the given fetch through Fresco, writing the result to the given
+     * disk cache, under the given source version, if there is one.
+     */
+    private void startFetch(final InFlightFetch fetch, Uri uri, ImageDecodeScheduler.Lane lane,
+                            final Bitmap.Config config, final int targetSize,
+                            final DecodedImageDiskCache diskCache, final String sourceVersion) {
+        ImageRequest request = buildRequest(uri, lane, config, targetSize);
         ImagePipeline imagePipeline = Fresco.getImagePipeline();
-        ImageRequest request = ImageRequestBuilder.newBuilderWithSource(uri).build();
         DataSource<CloseableReference<CloseableImage>> dataSource = imagePipeline.fetchDecodedImage(request, mContext);
 
         DataSubscriber<CloseableReference<CloseableImage>> dataSubscriber =
@@ -143,49 +649,133 @@ public class ImageDownloader {
                         if (!dataSource.isFinished()) {
                             return;
                         }
-                        // If the listener isn't still valid, then return before we fetch the result
+                        // If no listener is still valid, then return before we fetch the result
                         // and the memory-intensive bitmap.
-                        if (listener != null && !listener.isValid()) {
+                        List<ImageReferenceListener> listeners = fetch.finish(true);
+                        if (listeners.isEmpty()) {
+                            sWastedDecodes.incrementAndGet();
+                            dataSource.close();
                             return;
                         }
-                        // If we need to keep track and close any CloseableReferences, but NOT the
-                        // data contained within.
+                        // We need to keep track and close any CloseableReferences, but NOT the
+                        // data contained within, which the listeners now own references to.
                         CloseableReference<CloseableImage> result = dataSource.getResult();
                         CloseableImage image = result.get();
                         Log.d("[ImageDownloader.onNewResultImpl]", image.getClass().toString());
                         if (image instanceof BaseCloseableStaticBitmap) {
-                            Bitmap bitmap = ((BaseCloseableStaticBitmap) image).getUnderlyingBitmap();
-
-                            if (listener != null) {
-                                listener.completed(bitmap.copy(mConfig, true));
+                            BaseCloseableStaticBitmap staticBitmap = (BaseCloseableStaticBitmap) image;
+                            Bitmap decoded = staticBitmap.getUnderlyingBitmap();
+                            CloseableReference<Bitmap> bitmapReference;
+                            if (targetSize > 0 && Math.max(decoded.getWidth(), decoded.getHeight()) > targetSize) {
+                                // Formats Fresco can't downsample are scaled down here instead.
+                                bitmapReference = CloseableReference.of(scaleToTargetSize(decoded, targetSize, config),
+                                        SimpleBitmapReleaser.getInstance());
+                            } else if (decoded.getConfig() == config) {
+                                bitmapReference = staticBitmap.cloneUnderlyingBitmapReference();
                             } else {
-                                Bitmap temp = bitmap.copy(mConfig, true);
-                                if (temp != null) {
-                                    mImageMap.put(latch, temp);
-                                }
+                                // Some formats can't be decoded into every config; convert those.
+                                Bitmap converted = decoded.copy(config, true);
+                                bitmapReference = CloseableReference.of(converted, SimpleBitmapReleaser.getInstance());
+                            }
+                            if (diskCache != null) {
+                                writeToDiskCache(diskCache, fetch.mKey, sourceVersion, bitmapReference.clone());
+                            }
+                            deliver(listeners, bitmapReference);
+                        } else {
+                            for (ImageReferenceListener listener : listeners) {
+                                listener.failed("Unsupported image type: " + image.getClass().getSimpleName());
                             }
                         }
 
                         result.close();
                         dataSource.close();
-                        if (latch != null) {
-                            latch.countDown();
-                        }
                     }
 
                     @Override
                     protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
-                        if (latch != null) {
-                            latch.countDown();
-                        }
                         Throwable t = dataSource.getFailureCause();
-                        if (listener != null) {
+                        for (ImageReferenceListener listener : fetch.finish(true)) {
                             listener.failed(t.getMessage());
                         }
                     }
+
+                    @Override
+                    public void onCancellation(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                        fetch.finish(false);
+                    }
+
+                    @Override
+                    public void onProgressUpdate(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                        // Stop downloading and decoding once everyone who asked for the image is gone.
+                        if (fetch.cancelIfUnused()) {
+                            dataSource.close();
+                        }
+                    }
                 };
 
-        dataSource.subscribe(dataSubscriber, mExecutorSupplier.forBackgroundTasks());
+        fetch.attach(dataSource);
+        dataSource.subscribe(dataSubscriber, ImageDecodeScheduler.getInstance().executorFor(lane));
+    }
+
+    /**
+     * Hands a reference to the given bitmap to each listener, then closes the given reference.
+     */
+    private static void deliver(List<ImageReferenceListener> listeners, CloseableReference<Bitmap> bitmapReference) {
+        if (listeners.isEmpty()) {
+            sWastedDecodes.incrementAndGet();
+        } else {
+            sCompletedFetches.incrementAndGet();
+        }
+        for (ImageReferenceListener listener : listeners) {
+            listener.completed(bitmapReference.clone());
+        }
+        bitmapReference.close();
+    }
+
+    private static void writeToDiskCache(final DecodedImageDiskCache diskCache, final FetchKey key,
+                                         final String sourceVersion,
+                                         final CloseableReference<Bitmap> bitmapReference) {
+        ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    diskCache.write(key.mUri, sourceVersion, key.mConfig, key.mTargetSize,
+                            bitmapReference.get());
+                } finally {
+                    bitmapReference.close();
+                }
+            }
+        });
+    }
+
+    private static ImageRequest buildRequest(Uri uri, ImageDecodeScheduler.Lane lane,
+                                             Bitmap.Config config, int targetSize) {
+        // Have Fresco decode straight into the config we want, so that in most cases the
+        // decoded bitmap can be handed on as is.
+        ImageDecodeOptions decodeOptions = ImageDecodeOptions.newBuilder()
+                .setBitmapConfig(config)
+                .build();
+        ImageRequestBuilder requestBuilder = ImageRequestBuilder.newBuilderWithSource(uri)
+                .setRequestPriority(lane.getRequestPriority())
+                .setImageDecodeOptions(decodeOptions);
+        if (targetSize > 0) {
+            // Lets Fresco downsample while decoding where the format supports it (e.g. JPEG)
+            requestBuilder.setResizeOptions(new ResizeOptions(targetSize, targetSize));
+        }
+        return requestBuilder.build();
+    }
+
+    private static Bitmap scaleToTargetSize(Bitmap bitmap, int targetSize, Bitmap.Config config) {
+        float scale = (float) targetSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled.getConfig() != config) {
+            Bitmap converted = scaled.copy(config, true);
+            scaled.recycle();
+            scaled = converted;
+        }
+        return scaled;
     }
 
     public void setTextureFormat(Texture.Format format) {
@@ -196,4 +786,20 @@ public class ImageDownloader {
             mConfig = Bitmap.Config.ARGB_8888;
         }
     }
+
+    /**
+     * Sets the {@link ImageDecodeScheduler.Lane} that subsequent fetches from this downloader
+     * are scheduled in. Defaults to {@link ImageDecodeScheduler.Lane#VISIBLE}.
+     */
+    public void setPriority(ImageDecodeScheduler.Lane lane) {
+        mLane = lane;
+    }
+
+    /**
+     * Limits subsequent fetches so that the longest edge of the returned bitmap is at most the
+     * given number of pixels. Images are never scaled up; 0 (the default) disables the limit.
+     */
+    public void setTargetSize(int targetSize) {
+        mTargetSize = Math.max(0, targetSize);
+    }
 }
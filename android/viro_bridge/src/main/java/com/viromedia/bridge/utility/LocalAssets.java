@@ -0,0 +1,112 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-maps assets that are stored uncompressed on the device, so that decoders can read them
+ * in place instead of copying them through a stream onto the Java heap.
+ *
+ * Three kinds of uris can be mapped: app resources as returned by {@link Helper#parseUri}
+ * (res://), APK assets (asset:///) and local files (file://). Resources and assets can only be
+ * mapped if they were stored uncompressed in the APK, as images and raw files usually are.
+ */
+public class LocalAssets {
+    private static final String TAG = ViroLog.getTag(LocalAssets.class);
+    private static final String RESOURCE_SCHEME = "res";
+    private static final String ASSET_SCHEME = "asset";
+    private static final String FILE_SCHEME = "file";
+
+    /**
+     * Whether the given uri refers to something on the device that {@link #map} may be able to
+     * map.
+     */
+    public static boolean isLocal(Uri uri) {
+        String scheme = uri.getScheme();
+        return RESOURCE_SCHEME.equalsIgnoreCase(scheme) || ASSET_SCHEME.equalsIgnoreCase(scheme)
+                || FILE_SCHEME.equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * Maps the contents of the given uri read-only. Returns null if the uri isn't local or its
+     * data is compressed, in which case it has to be read through a stream instead. The mapping
+     * stays valid until the returned buffer is garbage collected.
+     */
+    public static ByteBuffer map(Context context, Uri uri) {
+        String scheme = uri.getScheme();
+        try {
+            if (RESOURCE_SCHEME.equalsIgnoreCase(scheme)) {
+                return mapResource(context, Integer.parseInt(uri.getLastPathSegment()));
+            } else if (ASSET_SCHEME.equalsIgnoreCase(scheme)) {
+                String path = uri.getPath();
+                return path != null ? mapAsset(context.getAssets().openFd(path.substring(1))) : null;
+            } else if (FILE_SCHEME.equalsIgnoreCase(scheme)) {
+                return mapFile(uri.getPath());
+            }
+        } catch (FileNotFoundException | Resources.NotFoundException e) {
+            // Compressed resources and assets can't be opened as file descriptors
+            return null;
+        } catch (IOException | RuntimeException e) {
+            ViroLog.warn(TAG, "Unable to map [" + uri + "]: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static ByteBuffer mapResource(Context context, int resourceId) throws IOException {
+        AssetFileDescriptor descriptor = context.getResources().openRawResourceFd(resourceId);
+        return descriptor != null ? mapAsset(descriptor) : null;
+    }
+
+    private static ByteBuffer mapAsset(AssetFileDescriptor descriptor) throws IOException {
+        // The descriptor covers the whole APK; the asset is the region at its start offset.
+        // Closing the stream closes the descriptor too.
+        try (FileInputStream input = descriptor.createInputStream();
+             FileChannel channel = input.getChannel()) {
+            long length = descriptor.getLength();
+            if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                length = channel.size() - descriptor.getStartOffset();
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), length);
+        }
+    }
+
+    private static ByteBuffer mapFile(String path) throws IOException {
+        if (path == null) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
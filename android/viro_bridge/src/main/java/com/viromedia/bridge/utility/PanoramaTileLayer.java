@@ -0,0 +1,364 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.viro.core.Geometry;
+import com.viro.core.Material;
+import com.viro.core.Node;
+import com.viro.core.Submesh;
+import com.viro.core.Texture;
+import com.viro.core.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shows full resolution tiles of a {@link PanoramaTileSource} over the parts of a 360 panorama
+ * the camera is looking at, while the rest of the panorama stays at the coarse resolution of the
+ * background texture beneath it.
+ *
+ * Tiles are patches of a sphere centered on the camera that are drawn before, and without
+ * depth, so that they read as part of the background. Only the visible tiles closest to the
+ * center of view are loaded, up to a fixed budget of texture memory. All methods must be
+ * called on the main thread.
+ */
+public class PanoramaTileLayer {
+    public static final long DEFAULT_BUDGET_BYTES = 64 * 1024 * 1024;
+    private static final float RADIUS = 50;
+    private static final int SEGMENTS_PER_TILE = 8;
+    private static final int MAX_CONCURRENT_LOADS = 2;
+    private static final int RENDERING_ORDER = -1000;
+    // Generous estimates of the camera's half field of view; tiles just outside it are loaded too
+    private static final double HORIZONTAL_HALF_FOV = Math.toRadians(50);
+    private static final double VERTICAL_HALF_FOV = Math.toRadians(40);
+
+    private final PanoramaTileSource mSource;
+    private final Texture.Format mFormat;
+    private final Bitmap.Config mConfig;
+    private final long mBudgetBytes;
+    private final Node mRootNode;
+    private final Tile[] mTiles;
+    private final Handler mMainHandler;
+    private int mLoadingCount;
+    private boolean mDisposed;
+
+    public PanoramaTileLayer(PanoramaTileSource source, Texture.Format format, long budgetBytes) {
+        mSource = source;
+        mFormat = format;
+        mConfig = format == Texture.Format.RGB565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        mBudgetBytes = budgetBytes;
+        mRootNode = new Node();
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        mTiles = new Tile[source.getColumns() * source.getRows()];
+        for (int row = 0; row < source.getRows(); row++) {
+            for (int column = 0; column < source.getColumns(); column++) {
+                mTiles[row * source.getColumns() + column] = new Tile(column, row);
+            }
+        }
+    }
+
+    /**
+     * The node holding the tiles, which should be added to the scene or portal showing the
+     * panorama.
+     */
+    public Node getNode() {
+        return mRootNode;
+    }
+
+    /**
+     * Loads the tiles the camera now sees and unloads those it no longer does.
+     *
+     * @param position the camera's position
+     * @param forward  the camera's forward vector
+     * @param up       the camera's up vector
+     * @param rotation the panorama's rotation, as euler angles in radians
+     */
+    public void update(Vector position, Vector forward, Vector up, float[] rotation) {
+        // The camera's transform isn't known until the scene has rendered
+        if (mDisposed || (forward.x == 0 && forward.y == 0 && forward.z == 0)) {
+            return;
+        }
+
+        // The panorama is infinitely far away, so it moves with the camera
+        mRootNode.setPosition(position);
+        mRootNode.setRotation(new Vector(rotation[0], rotation[1], rotation[2]));
+
+        float[] f = normalize(toPanoramaSpace(new float[] {forward.x, forward.y, forward.z}, rotation));
+        float[] u = normalize(toPanoramaSpace(new float[] {up.x, up.y, up.z}, rotation));
+        float[] r = normalize(cross(f, u));
+        u = cross(r, f);
+
+        List<Tile> visible = new ArrayList<>();
+        for (Tile tile : mTiles) {
+            float[] d = tile.mCenter;
+            double horizontal = Math.atan2(dot(d, r), dot(d, f));
+            double vertical = Math.asin(Math.max(-1, Math.min(1, dot(d, u))));
+            tile.mViewAngle = Math.acos(Math.max(-1, Math.min(1, dot(d, f))));
+            if (Math.abs(horizontal) < HORIZONTAL_HALF_FOV + tile.mAngularRadius
+                    && Math.abs(vertical) < VERTICAL_HALF_FOV + tile.mAngularRadius) {
+                visible.add(tile);
+            }
+        }
+
+        // Fill the budget with the tiles closest to the center of view first
+        Collections.sort(visible, new Comparator<Tile>() {
+            @Override
+            public int compare(Tile a, Tile b) {
+                return Double.compare(a.mViewAngle, b.mViewAngle);
+            }
+        });
+        long wantedBytes = 0;
+        for (Tile tile : mTiles) {
+            tile.mWanted = false;
+        }
+        for (Tile tile : visible) {
+            if (wantedBytes + tile.mBytes > mBudgetBytes) {
+                break;
+            }
+            wantedBytes += tile.mBytes;
+            tile.mWanted = true;
+        }
+
+        for (Tile tile : mTiles) {
+            if (!tile.mWanted && tile.mTexture != null) {
+                hideTile(tile);
+            }
+        }
+        for (Tile tile : visible) {
+            if (mLoadingCount >= MAX_CONCURRENT_LOADS) {
+                break;
+            }
+            if (tile.mWanted && tile.mTexture == null && !tile.mLoading) {
+                loadTile(tile);
+            }
+        }
+    }
+
+    private void loadTile(final Tile tile) {
+        final TextureCache.Key key = new TextureCache.Key(mSource.getUri() + "#tile/" + tile.mColumn + "/" + tile.mRow,
+                mFormat, false, null, mSource.getTileSize());
+        TextureCache.CachedTexture cached = TextureCache.acquire(key);
+        if (cached != null) {
+            showTile(tile, cached);
+            return;
+        }
+
+        tile.mLoading = true;
+        mLoadingCount++;
+        ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = tile.mWanted ? mSource.decodeTile(tile.mColumn, tile.mRow, mConfig) : null;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        tile.mLoading = false;
+                        mLoadingCount--;
+                        if (bitmap == null) {
+                            return;
+                        }
+                        if (mDisposed || !tile.mWanted) {
+                            bitmap.recycle();
+                            return;
+                        }
+                        TextureCache.CachedTexture cached = TextureCache.acquire(key, bitmap);
+                        bitmap.recycle();
+                        showTile(tile, cached);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showTile(Tile tile, TextureCache.CachedTexture cached) {
+        Material material = new Material();
+        material.setLightingModel(Material.LightingModel.CONSTANT);
+        material.setCullMode(Material.CullMode.NONE);
+        material.setWritesToDepthBuffer(false);
+        material.setReadsFromDepthBuffer(false);
+        material.setDiffuseTexture(cached.getTexture());
+
+        Geometry geometry = createTileGeometry(mSource.getTileBounds(tile.mColumn, tile.mRow));
+        geometry.setMaterials(Arrays.asList(material));
+
+        Node node = new Node();
+        node.setGeometry(geometry);
+        node.setRenderingOrder(RENDERING_ORDER);
+        mRootNode.addChildNode(node);
+
+        tile.mTexture = cached;
+        tile.mMaterial = material;
+        tile.mGeometry = geometry;
+        tile.mNode = node;
+    }
+
+    private void hideTile(Tile tile) {
+        tile.mNode.removeFromParentNode();
+        tile.mNode.dispose();
+        tile.mGeometry.dispose();
+        tile.mMaterial.dispose();
+        // Released tiles stay in the TextureCache while unused, so looking back is cheap
+        TextureCache.release(tile.mTexture);
+
+        tile.mNode = null;
+        tile.mGeometry = null;
+        tile.mMaterial = null;
+        tile.mTexture = null;
+    }
+
+    private Geometry createTileGeometry(Rect bounds) {
+        List<Vector> vertices = new ArrayList<>();
+        List<Vector> texcoords = new ArrayList<>();
+        List<Vector> normals = new ArrayList<>();
+        for (int j = 0; j <= SEGMENTS_PER_TILE; j++) {
+            float t = (float) j / SEGMENTS_PER_TILE;
+            for (int i = 0; i <= SEGMENTS_PER_TILE; i++) {
+                float s = (float) i / SEGMENTS_PER_TILE;
+                float[] d = direction((bounds.left + s * bounds.width()) / mSource.getWidth(),
+                        (bounds.top + t * bounds.height()) / mSource.getHeight());
+                vertices.add(new Vector(d[0] * RADIUS, d[1] * RADIUS, d[2] * RADIUS));
+                normals.add(new Vector(-d[0], -d[1], -d[2]));
+                texcoords.add(new Vector(s, t, 0));
+            }
+        }
+
+        List<Integer> indices = new ArrayList<>();
+        int stride = SEGMENTS_PER_TILE + 1;
+        for (int j = 0; j < SEGMENTS_PER_TILE; j++) {
+            for (int i = 0; i < SEGMENTS_PER_TILE; i++) {
+                int topLeft = j * stride + i;
+                int bottomLeft = topLeft + stride;
+                indices.addAll(Arrays.asList(topLeft, bottomLeft, topLeft + 1));
+                indices.addAll(Arrays.asList(topLeft + 1, bottomLeft, bottomLeft + 1));
+            }
+        }
+
+        Geometry geometry = new Geometry();
+        geometry.setVertices(vertices);
+        geometry.setTextureCoordinates(texcoords);
+        geometry.setNormals(normals);
+        geometry.setSubmeshes(Arrays.asList(Submesh.builder().triangleIndices(indices).build()));
+        return geometry;
+    }
+
+    public void dispose() {
+        mDisposed = true;
+        for (Tile tile : mTiles) {
+            tile.mWanted = false;
+            if (tile.mTexture != null) {
+                hideTile(tile);
+            }
+        }
+        mRootNode.removeFromParentNode();
+        mRootNode.dispose();
+    }
+
+    /**
+     * The direction from the center of the panorama sphere to the given point of the
+     * equirectangular image. The center of the image faces down -Z.
+     */
+    private static float[] direction(float u, float v) {
+        double longitude = (u - 0.5) * 2 * Math.PI;
+        double latitude = (0.5 - v) * Math.PI;
+        return new float[] {
+                (float) (Math.sin(longitude) * Math.cos(latitude)),
+                (float) Math.sin(latitude),
+                (float) (-Math.cos(longitude) * Math.cos(latitude))};
+    }
+
+    /**
+     * Undoes the panorama's rotation (applied X, then Y, then Z) on the given vector.
+     */
+    private static float[] toPanoramaSpace(float[] v, float[] rotation) {
+        return rotateX(rotateY(rotateZ(v, -rotation[2]), -rotation[1]), -rotation[0]);
+    }
+
+    private static float[] rotateX(float[] v, double angle) {
+        float c = (float) Math.cos(angle), s = (float) Math.sin(angle);
+        return new float[] {v[0], c * v[1] - s * v[2], s * v[1] + c * v[2]};
+    }
+
+    private static float[] rotateY(float[] v, double angle) {
+        float c = (float) Math.cos(angle), s = (float) Math.sin(angle);
+        return new float[] {c * v[0] + s * v[2], v[1], -s * v[0] + c * v[2]};
+    }
+
+    private static float[] rotateZ(float[] v, double angle) {
+        float c = (float) Math.cos(angle), s = (float) Math.sin(angle);
+        return new float[] {c * v[0] - s * v[1], s * v[0] + c * v[1], v[2]};
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static float[] cross(float[] a, float[] b) {
+        return new float[] {a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static float[] normalize(float[] v) {
+        float length = (float) Math.sqrt(dot(v, v));
+        if (length == 0) {
+            return v;
+        }
+        return new float[] {v[0] / length, v[1] / length, v[2] / length};
+    }
+
+    private final class Tile {
+        private final int mColumn;
+        private final int mRow;
+        private final float[] mCenter;
+        private final double mAngularRadius;
+        private final long mBytes;
+        private double mViewAngle;
+        private volatile boolean mWanted;
+        private boolean mLoading;
+        private TextureCache.CachedTexture mTexture;
+        private Material mMaterial;
+        private Geometry mGeometry;
+        private Node mNode;
+
+        private Tile(int column, int row) {
+            mColumn = column;
+            mRow = row;
+
+            Rect bounds = mSource.getTileBounds(column, row);
+            float width = mSource.getWidth();
+            float height = mSource.getHeight();
+            mCenter = direction(bounds.exactCenterX() / width, bounds.exactCenterY() / height);
+            // Half the tile's diagonal, as an angle on the sphere
+            double halfWidth = Math.PI * bounds.width() / width;
+            double halfHeight = Math.PI * bounds.height() / height / 2;
+            mAngularRadius = Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight);
+            mBytes = TextureCache.estimateBytes(bounds.width(), bounds.height(), mFormat, false);
+        }
+    }
+}
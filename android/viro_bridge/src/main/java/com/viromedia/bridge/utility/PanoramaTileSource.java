@@ -0,0 +1,234 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.imagepipeline.cache.DefaultCacheKeyFactory;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cuts a large equirectangular panorama into a grid of tiles that can each be decoded at full
+ * resolution on their own, without ever decoding the whole image.
+ *
+ * Remote panoramas are first downloaded into Fresco's disk cache; tiles are then decoded out of
+ * the encoded file there with a {@link BitmapRegionDecoder}.
+ */
+public class PanoramaTileSource {
+    private static final String TAG = ViroLog.getTag(PanoramaTileSource.class);
+    private static final int DEFAULT_TILE_SIZE = 1024;
+    private final String mUri;
+    private final BitmapRegionDecoder mDecoder;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mColumns;
+    private final int mRows;
+    // The decoder is only recycled once no tile is being decoded from it. Guarded by mLock.
+    private final Object mLock = new Object();
+    private int mActiveDecodes = 0;
+    private boolean mRecycled = false;
+
+    public interface OpenListener {
+        boolean isValid();
+        void completed(PanoramaTileSource source);
+        void failed(String error);
+    }
+
+    /**
+     * Opens the panorama at the given uri off the main thread. The listener is invoked from a
+     * decode thread.
+     */
+    public static void openAsync(final Context context, final Uri uri, final OpenListener listener) {
+        final String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            ImageDecodeScheduler.getInstance().submit(ImageDecodeScheduler.Lane.VISIBLE, new Runnable() {
+                @Override
+                public void run() {
+                    if (listener.isValid()) {
+                        open(context, uri, null, listener);
+                    }
+                }
+            });
+            return;
+        }
+
+        final ImageRequest request = ImageRequest.fromUri(uri);
+        DataSource<Void> dataSource = Fresco.getImagePipeline().prefetchToDiskCache(request, context);
+        dataSource.subscribe(new BaseDataSubscriber<Void>() {
+            @Override
+            protected void onNewResultImpl(DataSource<Void> dataSource) {
+                if (!dataSource.isFinished()) {
+                    return;
+                }
+                dataSource.close();
+                if (listener.isValid()) {
+                    open(context, uri, request, listener);
+                }
+            }
+
+            @Override
+            protected void onFailureImpl(DataSource<Void> dataSource) {
+                Throwable t = dataSource.getFailureCause();
+                listener.failed(t != null ? t.getMessage() : "Unable to download panorama");
+            }
+        }, ImageDecodeScheduler.getInstance().executorFor(ImageDecodeScheduler.Lane.VISIBLE));
+    }
+
+    private static void open(Context context, Uri uri, ImageRequest cachedRequest, OpenListener listener) {
+        InputStream stream = null;
+        try {
+            stream = openStream(context, uri, cachedRequest);
+            if (stream == null) {
+                listener.failed("Unable to open panorama: " + uri);
+                return;
+            }
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(stream, false);
+            listener.completed(new PanoramaTileSource(uri.toString(), decoder));
+        } catch (IOException e) {
+            listener.failed("Unable to decode panorama: " + e.getMessage());
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    ViroLog.warn(TAG, "Unable to close panorama stream: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static InputStream openStream(Context context, Uri uri, ImageRequest cachedRequest) throws IOException {
+        if (cachedRequest != null) {
+            CacheKey key = DefaultCacheKeyFactory.getInstance().getEncodedCacheKey(cachedRequest, null);
+            BinaryResource resource = ImagePipelineFactory.getInstance().getMainFileCache().getResource(key);
+            return resource != null ? resource.openStream() : null;
+        }
+        if ("res".equalsIgnoreCase(uri.getScheme())) {
+            return context.getResources().openRawResource(Integer.parseInt(uri.getLastPathSegment()));
+        }
+        return context.getContentResolver().openInputStream(uri);
+    }
+
+    private PanoramaTileSource(String uri, BitmapRegionDecoder decoder) {
+        mUri = uri;
+        mDecoder = decoder;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mTileSize = Math.min(DEFAULT_TILE_SIZE, Helper.getMaxTextureSize());
+        mColumns = (mWidth + mTileSize - 1) / mTileSize;
+        mRows = (mHeight + mTileSize - 1) / mTileSize;
+    }
+
+    public String getUri() {
+        return mUri;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /**
+     * Returns the pixels of the panorama covered by the given tile. Edge tiles may be smaller
+     * than the tile size.
+     */
+    public Rect getTileBounds(int column, int row) {
+        int left = column * mTileSize;
+        int top = row * mTileSize;
+        return new Rect(left, top, Math.min(left + mTileSize, getWidth()),
+                Math.min(top + mTileSize, getHeight()));
+    }
+
+    /**
+     * Decodes the given tile at full resolution. Safe to call from multiple threads; returns
+     * null if this source was recycled or the tile couldn't be decoded.
+     */
+    public Bitmap decodeTile(int column, int row, Bitmap.Config config) {
+        synchronized (mLock) {
+            if (mRecycled) {
+                return null;
+            }
+            mActiveDecodes++;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        try {
+            return mDecoder.decodeRegion(getTileBounds(column, row), options);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            ViroLog.warn(TAG, "Unable to decode tile of [" + mUri + "]: " + e.getMessage());
+            return null;
+        } finally {
+            synchronized (mLock) {
+                mActiveDecodes--;
+                if (mRecycled && mActiveDecodes == 0) {
+                    mDecoder.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the decoder. Tiles still being decoded finish first; no new ones are started.
+     */
+    public void recycle() {
+        synchronized (mLock) {
+            if (mRecycled) {
+                return;
+            }
+            mRecycled = true;
+            if (mActiveDecodes == 0) {
+                mDecoder.recycle();
+            }
+        }
+    }
+}
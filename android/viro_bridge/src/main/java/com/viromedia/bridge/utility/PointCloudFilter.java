@@ -0,0 +1,205 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thins out AR point clouds before they're sent to JS, on a worker thread.
+ *
+ * Updates are dropped if they arrive faster than the max update rate, or while the previous
+ * update is still being filtered. The points of an update are then filtered by confidence,
+ * reduced to the most confident point per voxel of a grid, and capped at a max count (keeping
+ * the most confident points).
+ */
+public class PointCloudFilter {
+    private static final String MAX_POINTS_KEY = "maxPoints";
+    private static final String VOXEL_SIZE_KEY = "voxelSize";
+    private static final String MIN_CONFIDENCE_KEY = "minConfidence";
+    private static final String MAX_UPDATE_RATE_KEY = "maxUpdateRate";
+    // Points are stored as [x, y, z, confidence]
+    private static final int POINT_STRIDE = 4;
+
+    // One thread is plenty, as at most one update per scene is filtered at a time
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final int mMaxPoints;
+    private final float mVoxelSize;
+    private final float mMinConfidence;
+    private final long mMinUpdateIntervalMs;
+    // Guarded by this.
+    private long mLastUpdateTime = 0;
+    private boolean mFiltering = false;
+
+    public interface Listener {
+        /**
+         * Called on the filter's worker thread with the points and ids that were kept.
+         */
+        void completed(float[] points, long[] ids);
+    }
+
+    /**
+     * Creates a filter from the given options map, with the optional keys "maxPoints",
+     * "voxelSize" (in meters), "minConfidence" (0 to 1) and "maxUpdateRate" (in updates per
+     * second). Returns null if the map is null.
+     */
+    public static PointCloudFilter fromMap(ReadableMap options) {
+        if (options == null) {
+            return null;
+        }
+        int maxPoints = options.hasKey(MAX_POINTS_KEY) ? options.getInt(MAX_POINTS_KEY) : 0;
+        float voxelSize = options.hasKey(VOXEL_SIZE_KEY) ? (float) options.getDouble(VOXEL_SIZE_KEY) : 0;
+        float minConfidence = options.hasKey(MIN_CONFIDENCE_KEY) ? (float) options.getDouble(MIN_CONFIDENCE_KEY) : 0;
+        double maxUpdateRate = options.hasKey(MAX_UPDATE_RATE_KEY) ? options.getDouble(MAX_UPDATE_RATE_KEY) : 0;
+        return new PointCloudFilter(maxPoints, voxelSize, minConfidence, maxUpdateRate);
+    }
+
+    public PointCloudFilter(int maxPoints, float voxelSize, float minConfidence, double maxUpdateRate) {
+        mMaxPoints = Math.max(0, maxPoints);
+        mVoxelSize = Math.max(0, voxelSize);
+        mMinConfidence = minConfidence;
+        mMinUpdateIntervalMs = maxUpdateRate > 0 ? (long) (1000 / maxUpdateRate) : 0;
+    }
+
+    /**
+     * Returns true and starts an update if the previous one is done and the max update rate
+     * allows another. Every started update must be passed to {@link #filterAsync}.
+     */
+    public synchronized boolean startUpdate() {
+        long now = SystemClock.uptimeMillis();
+        if (mFiltering || (mLastUpdateTime > 0 && now - mLastUpdateTime < mMinUpdateIntervalMs)) {
+            return false;
+        }
+        mFiltering = true;
+        mLastUpdateTime = now;
+        return true;
+    }
+
+    public void filterAsync(final float[] points, final long[] ids, final Listener listener) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    filter(points, ids, listener);
+                } finally {
+                    synchronized (PointCloudFilter.this) {
+                        mFiltering = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private void filter(float[] points, long[] ids, Listener listener) {
+        int count = Math.min(points.length / POINT_STRIDE, ids.length);
+        List<Integer> kept = new ArrayList<>(count);
+        Map<VoxelKey, Integer> voxels = mVoxelSize > 0 ? new HashMap<VoxelKey, Integer>() : null;
+
+        for (int i = 0; i < count; i++) {
+            float confidence = points[i * POINT_STRIDE + 3];
+            if (confidence < mMinConfidence) {
+                continue;
+            }
+            if (voxels == null) {
+                kept.add(i);
+                continue;
+            }
+
+            VoxelKey voxel = new VoxelKey(
+                    (int) Math.floor(points[i * POINT_STRIDE] / mVoxelSize),
+                    (int) Math.floor(points[i * POINT_STRIDE + 1] / mVoxelSize),
+                    (int) Math.floor(points[i * POINT_STRIDE + 2] / mVoxelSize));
+            Integer existing = voxels.get(voxel);
+            if (existing == null || points[existing * POINT_STRIDE + 3] < confidence) {
+                voxels.put(voxel, i);
+            }
+        }
+        if (voxels != null) {
+            kept.addAll(voxels.values());
+            Collections.sort(kept);
+        }
+
+        if (mMaxPoints > 0 && kept.size() > mMaxPoints) {
+            final float[] allPoints = points;
+            Collections.sort(kept, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Float.compare(allPoints[b * POINT_STRIDE + 3], allPoints[a * POINT_STRIDE + 3]);
+                }
+            });
+            kept = new ArrayList<>(kept.subList(0, mMaxPoints));
+            // Keep the points in the order ARCore gave them
+            Collections.sort(kept);
+        }
+
+        if (kept.size() == count) {
+            listener.completed(points, ids);
+            return;
+        }
+
+        float[] keptPoints = new float[kept.size() * POINT_STRIDE];
+        long[] keptIds = new long[kept.size()];
+        for (int i = 0; i < kept.size(); i++) {
+            int index = kept.get(i);
+            System.arraycopy(points, index * POINT_STRIDE, keptPoints, i * POINT_STRIDE, POINT_STRIDE);
+            keptIds[i] = ids[index];
+        }
+        listener.completed(keptPoints, keptIds);
+    }
+
+    private static final class VoxelKey {
+        private final int mX;
+        private final int mY;
+        private final int mZ;
+
+        private VoxelKey(int x, int y, int z) {
+            mX = x;
+            mY = y;
+            mZ = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VoxelKey)) {
+                return false;
+            }
+            VoxelKey other = (VoxelKey) o;
+            return mX == other.mX && mY == other.mY && mZ == other.mZ;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mX + mY) + mZ;
+        }
+    }
+}
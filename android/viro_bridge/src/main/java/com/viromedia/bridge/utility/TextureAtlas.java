@@ -0,0 +1,328 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.viro.core.Material;
+import com.viro.core.Texture;
+import com.viro.core.internal.Image;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs small images into shared atlas pages, so that the many small icons of a UI can be drawn
+ * with a single {@link Material} and texture per page instead of one each.
+ *
+ * Atlases are grouped by name: images are only packed together with images of the same group
+ * and texture format. Each page owns one material whose diffuse texture is the page; users set
+ * that material on their geometry and map their texture coordinates into the page with the
+ * {@link Region}'s u0/v0/u1/v1. A page is re-uploaded as a whole when images are added to it,
+ * so images added within UPLOAD_DELAY_MS of each other are uploaded together.
+ *
+ * Pages are packed in shelves and space isn't reclaimed as regions are released; a page is
+ * destroyed once none of its regions are in use. All methods must be called on the main thread.
+ */
+public class TextureAtlas {
+    private static final String TAG = ViroLog.getTag(TextureAtlas.class);
+    // Images with a longer edge than this aren't worth packing
+    public static final int MAX_REGION_SIZE = 256;
+    private static final int DEFAULT_PAGE_SIZE = 1024;
+    // Space left around each image so that filtering doesn't bleed neighbors into it
+    private static final int PADDING = 2;
+    // How long a page waits for more images before uploading
+    private static final long UPLOAD_DELAY_MS = 100;
+
+    private static final Map<String, TextureAtlas> sAtlases = new HashMap<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final String mName;
+    private final Texture.Format mFormat;
+    private final int mPageSize;
+    private final List<Page> mPages = new ArrayList<>();
+    private final Map<String, Region> mRegions = new HashMap<>();
+
+    /**
+     * Whether an image of the given size can be packed into an atlas.
+     */
+    public static boolean canPack(int width, int height) {
+        return width > 0 && height > 0 && Math.max(width, height) <= MAX_REGION_SIZE;
+    }
+
+    /**
+     * Returns the region holding the image with the given key in the given atlas group, packing
+     * the given bitmap into it if it isn't there yet, and takes a reference to it. Every acquire
+     * must be balanced by a {@link #release}.
+     */
+    public static Region acquire(String group, String key, Bitmap bitmap, Texture.Format format) {
+        String atlasName = group + "/" + format;
+        TextureAtlas atlas = sAtlases.get(atlasName);
+        if (atlas == null) {
+            atlas = new TextureAtlas(atlasName, format);
+            sAtlases.put(atlasName, atlas);
+        }
+        return atlas.acquireRegion(key, bitmap);
+    }
+
+    public static void release(Region region) {
+        if (region == null) {
+            return;
+        }
+        if (region.mRefCount <= 0) {
+            ViroLog.warn(TAG, "Released atlas region [" + region.mKey + "] more times than acquired.");
+            return;
+        }
+
+        region.mRefCount--;
+        if (region.mRefCount > 0) {
+            return;
+        }
+
+        Page page = region.mPage;
+        TextureAtlas atlas = page.mAtlas;
+        atlas.mRegions.remove(region.mKey);
+        page.mRegionCount--;
+        if (page.mRegionCount == 0) {
+            page.destroy();
+            atlas.mPages.remove(page);
+            if (atlas.mPages.isEmpty()) {
+                sAtlases.remove(atlas.mName);
+            }
+        }
+    }
+
+    private TextureAtlas(String name, Texture.Format format) {
+        mName = name;
+        mFormat = format;
+        mPageSize = Math.min(DEFAULT_PAGE_SIZE, Helper.getMaxTextureSize());
+    }
+
+    private Region acquireRegion(String key, Bitmap bitmap) {
+        Region region = mRegions.get(key);
+        if (region != null) {
+            region.mRefCount++;
+            return region;
+        }
+
+        int width = bitmap.getWidth() + 2 * PADDING;
+        int height = bitmap.getHeight() + 2 * PADDING;
+        Page page = null;
+        for (Page candidate : mPages) {
+            if (candidate.reserve(width, height)) {
+                page = candidate;
+                break;
+            }
+        }
+        if (page == null) {
+            page = new Page(this);
+            mPages.add(page);
+            page.reserve(width, height);
+        }
+
+        int x = page.mReservedX + PADDING;
+        int y = page.mReservedY + PADDING;
+        page.draw(bitmap, x, y);
+
+        // Sample from texel centers so that the edges don't pick up the padding
+        float size = mPageSize;
+        region = new Region(key, page, bitmap.getWidth(), bitmap.getHeight(),
+                (x + 0.5f) / size, (y + 0.5f) / size,
+                (x + bitmap.getWidth() - 0.5f) / size, (y + bitmap.getHeight() - 0.5f) / size);
+        region.mRefCount = 1;
+        page.mRegionCount++;
+        mRegions.put(key, region);
+        return region;
+    }
+
+    private static final class Page {
+        private final TextureAtlas mAtlas;
+        private final Bitmap mPixels;
+        private final Canvas mCanvas;
+        private final Material mMaterial;
+        private final long mBytes;
+        private Image mImage;
+        private Texture mTexture;
+        private int mRegionCount;
+        private boolean mUploadPending;
+        private boolean mDestroyed;
+
+        // Shelf packing: images are placed left to right in rows as tall as their tallest image
+        private int mShelfY;
+        private int mShelfHeight;
+        private int mCursorX;
+        private int mReservedX;
+        private int mReservedY;
+
+        private Page(TextureAtlas atlas) {
+            mAtlas = atlas;
+            Bitmap.Config config = atlas.mFormat == Texture.Format.RGB565
+                    ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            mPixels = Bitmap.createBitmap(atlas.mPageSize, atlas.mPageSize, config);
+            mCanvas = new Canvas(mPixels);
+            mMaterial = new Material();
+            mBytes = TextureCache.estimateBytes(atlas.mPageSize, atlas.mPageSize, atlas.mFormat, false);
+            TextureCache.trackExternal(mBytes);
+        }
+
+        /**
+         * Finds space for an image of the given size, storing its position in mReservedX/Y. The
+         * shelves are left untouched if the image doesn't fit.
+         */
+        private boolean reserve(int width, int height) {
+            int pageSize = mAtlas.mPageSize;
+            int x = mCursorX;
+            int y = mShelfY;
+            int shelfHeight = mShelfHeight;
+            if (x + width > pageSize) {
+                // Start a new shelf below the current one
+                y += shelfHeight;
+                shelfHeight = 0;
+                x = 0;
+            }
+            if (y + height > pageSize || width > pageSize) {
+                return false;
+            }
+
+            mReservedX = x;
+            mReservedY = y;
+            mCursorX = x + width;
+            mShelfY = y;
+            mShelfHeight = Math.max(shelfHeight, height);
+            return true;
+        }
+
+        private void draw(Bitmap bitmap, int x, int y) {
+            mCanvas.drawBitmap(bitmap, x, y, null);
+            if (mUploadPending) {
+                return;
+            }
+
+            // Textures can only be uploaded whole, so wait a little for the rest of a burst of
+            // images (e.g. a list of icons finishing their downloads) and upload them together.
+            mUploadPending = true;
+            sMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mUploadPending = false;
+                    upload();
+                }
+            }, UPLOAD_DELAY_MS);
+        }
+
+        private void upload() {
+            if (mDestroyed) {
+                return;
+            }
+
+            Image previousImage = mImage;
+            Texture previousTexture = mTexture;
+            mImage = new Image(mPixels, mAtlas.mFormat);
+            mTexture = new Texture(mImage, true, false);
+            mMaterial.setDiffuseTexture(mTexture);
+
+            if (previousTexture != null) {
+                previousTexture.dispose();
+            }
+            if (previousImage != null) {
+                previousImage.destroy();
+            }
+        }
+
+        private void destroy() {
+            mDestroyed = true;
+            mMaterial.dispose();
+            if (mTexture != null) {
+                mTexture.dispose();
+                mTexture = null;
+            }
+            if (mImage != null) {
+                mImage.destroy();
+                mImage = null;
+            }
+            mPixels.recycle();
+            TextureCache.untrackExternal(mBytes);
+        }
+    }
+
+    /**
+     * An image packed into an atlas page.
+     */
+    public static final class Region {
+        private final String mKey;
+        private final Page mPage;
+        private final int mWidth;
+        private final int mHeight;
+        private final float mU0;
+        private final float mV0;
+        private final float mU1;
+        private final float mV1;
+        private int mRefCount;
+
+        private Region(String key, Page page, int width, int height, float u0, float v0, float u1, float v1) {
+            mKey = key;
+            mPage = page;
+            mWidth = width;
+            mHeight = height;
+            mU0 = u0;
+            mV0 = v0;
+            mU1 = u1;
+            mV1 = v1;
+        }
+
+        /**
+         * The material shared by every image on this region's page.
+         */
+        public Material getMaterial() {
+            return mPage.mMaterial;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public float getU0() {
+            return mU0;
+        }
+
+        public float getV0() {
+            return mV0;
+        }
+
+        public float getU1() {
+            return mU1;
+        }
+
+        public float getV1() {
+            return mV1;
+        }
+    }
+}
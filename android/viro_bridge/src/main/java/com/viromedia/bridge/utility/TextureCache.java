@@ -0,0 +1,432 @@
+//  Copyright © 2016 Viro Media. All rights reserved.
+//
+//  Permission is hereby granted, free of charge, to any person obtaining
+//  a copy of this software and associated documentation files (the
+//  "Software"), to deal in the Software without restriction, including
+//  without limitation the rights to use, copy, modify, merge, publish,
+//  distribute, sublicense, and/or sell copies of the Software, and to
+//  permit persons to whom the Software is furnished to do so, subject to
+//  the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included
+//  in all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+//  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+//  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+//  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+//  CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+//  TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+//  SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.viromedia.bridge.utility;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.viro.core.Texture;
+import com.viro.core.internal.Image;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bridge-wide store of image {@link Texture}s. Components that display the same image source
+ * with the same format, mipmap, stereo and target size settings share a single native {@link Image} and
+ * {@link Texture}, which is destroyed once the last component holding it releases it.
+ *
+ * Every {@link #acquire} must be balanced by a {@link #release} of the returned
+ * {@link CachedTexture}, typically in the component's onTearDown().
+ *
+ * The cache also accounts for the memory of every texture the bridge creates, including ones
+ * managed elsewhere (see {@link #trackExternal(long)}). Textures nobody references anymore are
+ * kept around for reuse, least recently released first out, for as long as the total stays
+ * within the budget and the system isn't asking for memory back.
+ */
+public class TextureCache {
+    private static final String TAG = ViroLog.getTag(TextureCache.class);
+    private static final String URI_KEY = "uri";
+
+    private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    private static final long MIN_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private static final Map<Key, CachedTexture> sTextures = new HashMap<>();
+    // Textures with no references, in the order they were released
+    private static final LinkedHashMap<Key, CachedTexture> sUnusedTextures = new LinkedHashMap<>();
+    private static long sBudgetBytes = DEFAULT_BUDGET_BYTES;
+    private static long sTrackedBytes = 0;
+    private static long sUnusedBytes = 0;
+    private static boolean sRegisteredMemoryCallbacks = false;
+
+    /**
+     * Starts listening for the system's memory pressure callbacks, and sizes the default budget
+     * to the device. Only the first call has any effect.
+     */
+    public static synchronized void registerMemoryCallbacks(Context context) {
+        if (sRegisteredMemoryCallbacks) {
+            return;
+        }
+        sRegisteredMemoryCallbacks = true;
+
+        Context appContext = context.getApplicationContext();
+        ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            // A quarter of the app's heap allowance, which scales with the device's RAM
+            sBudgetBytes = Math.max(MIN_BUDGET_BYTES, activityManager.getMemoryClass() * 1024L * 1024L / 4);
+        }
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                TextureCache.onTrimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // No-op
+            }
+
+            @Override
+            public void onLowMemory() {
+                evictUnused();
+            }
+        });
+    }
+
+    /**
+     * Creates the cache key for the given JS source map, or null if the source has no uri.
+     * The target size is the one given to {@link ImageDownloader#setTargetSize(int)}.
+     */
+    public static Key keyFor(ReadableMap source, Texture.Format format, boolean mipmap,
+                             String stereoMode, int targetSize, Context context) {
+        if (source == null || !source.hasKey(URI_KEY)) {
+            return null;
+        }
+        Uri uri = Helper.parseUri(source.getString(URI_KEY), context);
+        if (uri == null) {
+            return null;
+        }
+        return new Key(uri.toString(), format, mipmap, stereoMode, targetSize);
+    }
+
+    /**
+     * Creates the cache key for a cube texture with the given face uris, ordered px, nx, py, ny,
+     * pz, nz.
+     */
+    public static Key keyForCube(String[] faceUris, Texture.Format format, int targetSize) {
+        StringBuilder cubeUri = new StringBuilder("cube:");
+        for (String faceUri : faceUris) {
+            cubeUri.append(faceUri).append('|');
+        }
+        return new Key(cubeUri.toString(), format, false, null, targetSize);
+    }
+
+    /**
+     * Returns the texture cached under the given key and takes a reference to it, or null if
+     * no such texture is alive.
+     */
+    public static synchronized CachedTexture acquire(Key key) {
+        if (key == null) {
+            return null;
+        }
+        CachedTexture cached = sTextures.get(key);
+        if (cached != null) {
+            if (cached.mRefCount == 0) {
+                sUnusedTextures.remove(key);
+                sUnusedBytes -= cached.mBytes;
+            }
+            cached.mRefCount++;
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the texture cached under the given key, creating it from the given bitmap if
+     * it isn't alive yet, and takes a reference to it.
+     */
+    public static synchronized CachedTexture acquire(Key key, Bitmap bitmap) {
+        CachedTexture cached = acquire(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Image image = new Image(bitmap, key.mFormat);
+        Texture texture = new Texture(image, true, key.mMipmap, key.mStereoMode);
+        cached = new CachedTexture(key, new Image[] {image}, texture, bitmap.getWidth(), bitmap.getHeight(),
+                estimateBytes(bitmap.getWidth(), bitmap.getHeight(), key.mFormat, key.mMipmap));
+        cached.mRefCount = 1;
+        sTextures.put(key, cached);
+        sTrackedBytes += cached.mBytes;
+        enforceBudget();
+        return cached;
+    }
+
+    /**
+     * Returns the cube texture cached under the given key (see {@link #keyForCube}), creating it
+     * from the given square face bitmaps, ordered px, nx, py, ny, pz, nz, if it isn't alive yet,
+     * and takes a reference to it.
+     */
+    public static synchronized CachedTexture acquireCube(Key key, Bitmap[] faces) {
+        CachedTexture cached = acquire(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Image[] images = new Image[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            images[i] = new Image(faces[i], key.mFormat);
+        }
+        Texture texture = new Texture(images[0], images[1], images[2], images[3], images[4], images[5]);
+        int size = faces[0].getWidth();
+        cached = new CachedTexture(key, images, texture, size, size,
+                faces.length * estimateBytes(size, size, key.mFormat, false));
+        cached.mRefCount = 1;
+        sTextures.put(key, cached);
+        sTrackedBytes += cached.mBytes;
+        enforceBudget();
+        return cached;
+    }
+
+    /**
+     * Returns the texture cached under the given key, adopting the given texture as that entry
+     * if it isn't alive yet, and takes a reference to it. This is for textures the renderer
+     * loads itself (e.g. HDR images), which have no {@link Image} behind them; its memory is
+     * estimated from its size and the key's format. If the key is already alive the given
+     * texture is disposed.
+     */
+    public static synchronized CachedTexture acquire(Key key, Texture texture) {
+        CachedTexture cached = acquire(key);
+        if (cached != null) {
+            if (cached.mTexture != texture) {
+                texture.dispose();
+            }
+            return cached;
+        }
+
+        int width = texture.getWidth();
+        int height = texture.getHeight();
+        cached = new CachedTexture(key, new Image[0], texture, width, height,
+                estimateBytes(width, height, key.mFormat, key.mMipmap));
+        cached.mRefCount = 1;
+        sTextures.put(key, cached);
+        sTrackedBytes += cached.mBytes;
+        enforceBudget();
+        return cached;
+    }
+
+    /**
+     * Drops a reference to the given texture. Once the last one is gone the texture is kept for
+     * reuse, unless that would go over the budget.
+     */
+    public static synchronized void release(CachedTexture cached) {
+        if (cached == null) {
+            return;
+        }
+        if (cached.mRefCount <= 0) {
+            ViroLog.warn(TAG, "Released texture [" + cached.mKey.mUri + "] more times than acquired.");
+            return;
+        }
+
+        cached.mRefCount--;
+        if (cached.mRefCount == 0) {
+            // Textures of unknown size can't be budgeted, so they aren't kept for reuse
+            if (cached.mBytes == 0) {
+                destroy(cached);
+                return;
+            }
+            sUnusedTextures.put(cached.mKey, cached);
+            sUnusedBytes += cached.mBytes;
+            enforceBudget();
+        }
+    }
+
+    /**
+     * Destroys every texture that isn't referenced anymore.
+     */
+    public static synchronized void evictUnused() {
+        trimUnusedTo(0);
+    }
+
+    public static synchronized int size() {
+        return sTextures.size();
+    }
+
+    /**
+     * Sets the number of bytes of texture memory the bridge aims to stay under. Only textures
+     * no longer referenced are evicted to get there.
+     */
+    public static synchronized void setBudget(long bytes) {
+        sBudgetBytes = Math.max(0, bytes);
+        enforceBudget();
+    }
+
+    public static synchronized long getBudget() {
+        return sBudgetBytes;
+    }
+
+    /**
+     * Estimated bytes of all live textures the bridge knows of, referenced or not.
+     */
+    public static synchronized long getTrackedBytes() {
+        return sTrackedBytes;
+    }
+
+    /**
+     * Estimated bytes of the textures kept around without any references.
+     */
+    public static synchronized long getUnusedBytes() {
+        return sUnusedBytes;
+    }
+
+    /**
+     * Adds the memory of a texture created outside the cache (e.g. a cube map or a material
+     * texture) to the accounting. Must be balanced by {@link #untrackExternal(long)}.
+     */
+    public static synchronized void trackExternal(long bytes) {
+        sTrackedBytes += bytes;
+        enforceBudget();
+    }
+
+    public static synchronized void untrackExternal(long bytes) {
+        sTrackedBytes -= bytes;
+    }
+
+    /**
+     * Estimates the GPU memory used by a texture of the given size and format.
+     */
+    public static long estimateBytes(int width, int height, Texture.Format format, boolean mipmap) {
+        // RGBA8 and the shared-exponent RGB9_E5 of HDR textures both take 4 bytes per pixel
+        int bytesPerPixel = format == Texture.Format.RGB565 ? 2 : 4;
+        long bytes = (long) width * height * bytesPerPixel;
+        // A full mip chain adds a third
+        return mipmap ? bytes * 4 / 3 : bytes;
+    }
+
+    private static synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictUnused();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimUnusedTo(sUnusedBytes / 2);
+        }
+    }
+
+    private static void enforceBudget() {
+        long overBudget = sTrackedBytes - sBudgetBytes;
+        if (overBudget > 0) {
+            trimUnusedTo(Math.max(0, sUnusedBytes - overBudget));
+        }
+    }
+
+    private static void trimUnusedTo(long unusedBytes) {
+        Iterator<CachedTexture> iterator = sUnusedTextures.values().iterator();
+        while (sUnusedBytes > unusedBytes && iterator.hasNext()) {
+            CachedTexture cached = iterator.next();
+            iterator.remove();
+            sUnusedBytes -= cached.mBytes;
+            destroy(cached);
+        }
+    }
+
+    private static void destroy(CachedTexture cached) {
+        sTextures.remove(cached.mKey);
+        sTrackedBytes -= cached.mBytes;
+        cached.mTexture.dispose();
+        for (Image image : cached.mImages) {
+            image.destroy();
+        }
+    }
+
+    /**
+     * Identifies a texture by source uri and the parameters it was created with.
+     */
+    public static final class Key {
+        private final String mUri;
+        private final Texture.Format mFormat;
+        private final boolean mMipmap;
+        private final String mStereoMode;
+        private final int mTargetSize;
+
+        public Key(String uri, Texture.Format format, boolean mipmap, String stereoMode, int targetSize) {
+            mUri = uri;
+            mFormat = format;
+            mMipmap = mipmap;
+            mStereoMode = stereoMode;
+            mTargetSize = targetSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mMipmap == other.mMipmap
+                    && mTargetSize == other.mTargetSize
+                    && mFormat == other.mFormat
+                    && mUri.equals(other.mUri)
+                    && (mStereoMode == null ? other.mStereoMode == null : mStereoMode.equals(other.mStereoMode));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mUri.hashCode();
+            result = 31 * result + (mFormat != null ? mFormat.hashCode() : 0);
+            result = 31 * result + (mMipmap ? 1 : 0);
+            result = 31 * result + (mStereoMode != null ? mStereoMode.hashCode() : 0);
+            result = 31 * result + mTargetSize;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mUri + " [" + mFormat + ", mipmap " + mMipmap + ", stereo " + mStereoMode
+                    + ", size " + mTargetSize + "]";
+        }
+    }
+
+    /**
+     * A shared texture handed out by the cache, along with the dimensions of its source image
+     * (0 for adopted textures).
+     */
+    public static final class CachedTexture {
+        private final Key mKey;
+        private final Image[] mImages;
+        private final Texture mTexture;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mBytes;
+        private int mRefCount;
+
+        private CachedTexture(Key key, Image[] images, Texture texture, int width, int height, long bytes) {
+            mKey = key;
+            mImages = images;
+            mTexture = texture;
+            mWidth = width;
+            mHeight = height;
+            mBytes = bytes;
+        }
+
+        public Texture getTexture() {
+            return mTexture;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+}
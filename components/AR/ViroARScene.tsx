@@ -19,6 +19,7 @@ import resolveAssetSource from "react-native/Libraries/Image/resolveAssetSource"
 import {
   ViroAmbientLightInfo,
   ViroAmbientLightUpdateEvent,
+  ViroARAnchorBatchEvent,
   ViroARAnchorFoundEvent,
   ViroARAnchorRemovedEvent,
   ViroARAnchorUpdatedEvent,
@@ -47,6 +48,7 @@ import { ViroBase } from "../ViroBase";
 import { ViroCamera } from "../ViroCamera";
 import { ViroTrackingStateConstants } from "../ViroConstants";
 import { ViroCommonProps } from "./ViroCommonProps";
+import { base64ToArrayBuffer } from "../Utilities/ViroUtils";
 import { ViroOrbitCamera } from "components/ViroOrbitCamera";
 
 const ViroCameraModule = NativeModules.ViroCameraModule;
@@ -62,7 +64,44 @@ type Props = ViroCommonProps & {
 
   onCameraARHitTest?: (event: ViroCameraARHitTest) => void;
   onARPointCloudUpdate?: (pointCloud: ViroARPointCloud) => void;
+  /**
+   * (Android) If true, onARPointCloudUpdate receives the points as a single Float32Array of
+   * [x, y, z, confidence] values and the identifiers as an Int32Array, instead of nested arrays.
+   */
+  packedPointCloud?: boolean;
+  /**
+   * (Android) Thins out the point clouds given to onARPointCloudUpdate before they're sent to JS.
+   * Points below minConfidence (0-1) are dropped, only the most confident point per voxelSize
+   * (meters) cube is kept, at most maxPoints are sent, and at most maxUpdateRate updates are
+   * sent per second.
+   */
+  pointCloudUpdateOptions?: {
+    maxPoints?: number;
+    voxelSize?: number;
+    minConfidence?: number;
+    maxUpdateRate?: number;
+  };
+  /**
+   * (Android) Anchor updates are only sent once an anchor moved more than positionThreshold
+   * meters, turned more than rotationThreshold degrees or, for planes, grew or shrank more than
+   * extentThreshold meters or changed its polygon since its last update.
+   */
+  anchorUpdateOptions?: {
+    positionThreshold?: number;
+    rotationThreshold?: number;
+    extentThreshold?: number;
+  };
   onCameraTransformUpdate?: (cameraTransform: ViroCameraTransform) => void;
+  /**
+   * Limits onCameraTransformUpdate to at most maxUpdateRate updates per second (Android), sent
+   * only once the camera moved more than positionEpsilon meters or turned more than
+   * rotationEpsilon degrees since the last update.
+   */
+  cameraTransformUpdateOptions?: {
+    maxUpdateRate?: number;
+    positionEpsilon?: number;
+    rotationEpsilon?: number;
+  };
   onTrackingUpdated?: (
     state: ViroTrackingState,
     reason: ViroTrackingReason
@@ -121,8 +160,18 @@ export class ViroARScene extends ViroBase<Props> {
   _onARPointCloudUpdate = (
     event: NativeSyntheticEvent<ViroARPointCloudUpdateEvent>
   ) => {
+    var pointCloud = event.nativeEvent.pointCloud;
+    if (pointCloud && pointCloud.pointsData != undefined) {
+      // Packed point clouds arrive as base64 encoded little endian buffers.
+      pointCloud = {
+        points: new Float32Array(base64ToArrayBuffer(pointCloud.pointsData)),
+        identifiers: new Int32Array(
+          base64ToArrayBuffer(pointCloud.identifiersData)
+        ),
+      };
+    }
     this.props.onARPointCloudUpdate &&
-      this.props.onARPointCloudUpdate(event.nativeEvent.pointCloud);
+      this.props.onARPointCloudUpdate(pointCloud);
   };
 
   _onCameraTransformUpdate = (
@@ -256,6 +305,29 @@ export class ViroARScene extends ViroBase<Props> {
       this.props.onAnchorRemoved(event.nativeEvent.anchor);
   };
 
+  // Last vertices received per plane anchor, as batched updates only carry them when they change.
+  _anchorVertices: { [anchorId: string]: any } = {};
+
+  _onAnchorBatch = (event: NativeSyntheticEvent<ViroARAnchorBatchEvent>) => {
+    event.nativeEvent.events.forEach((anchorEvent) => {
+      var anchor = anchorEvent.anchor;
+      if (anchor.vertices != undefined) {
+        this._anchorVertices[anchor.anchorId] = anchor.vertices;
+      } else if (this._anchorVertices[anchor.anchorId] != undefined) {
+        anchor.vertices = this._anchorVertices[anchor.anchorId];
+      }
+
+      if (anchorEvent.type == "found") {
+        this.props.onAnchorFound && this.props.onAnchorFound(anchor);
+      } else if (anchorEvent.type == "updated") {
+        this.props.onAnchorUpdated && this.props.onAnchorUpdated(anchor);
+      } else if (anchorEvent.type == "removed") {
+        delete this._anchorVertices[anchor.anchorId];
+        this.props.onAnchorRemoved && this.props.onAnchorRemoved(anchor);
+      }
+    });
+  };
+
   findCollisionsWithRayAsync = async (
     from: Viro3DPoint,
     to: Viro3DPoint,
@@ -465,6 +537,7 @@ export class ViroARScene extends ViroBase<Props> {
           onAnchorFoundViro={this._onAnchorFound}
           onAnchorUpdatedViro={this._onAnchorUpdated}
           onAnchorRemovedViro={this._onAnchorRemoved}
+          onAnchorBatchViro={this._onAnchorBatch}
           timeToFuse={timeToFuse}
           anchorDetectionTypes={anchorDetectionTypes}
           displayPointCloud={displayPointCloud}
@@ -511,6 +584,7 @@ var VRTARScene = requireNativeComponent<any>(
       onAnchorFoundViro: true,
       onAnchorUpdatedViro: true,
       onAnchorRemovedViro: true,
+      onAnchorBatchViro: true,
       onCameraARHitTestViro: true,
       onARPointCloudUpdateViro: true,
       onCameraTransformUpdateViro: true,
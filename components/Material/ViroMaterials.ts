@@ -14,6 +14,7 @@ import {
   ColorValue,
   ImageResolvedAssetSource,
   NativeModules,
+  Platform,
   processColor,
 } from "react-native";
 // @ts-ignore
@@ -78,7 +79,12 @@ export type ViroMaterialDict = {
 };
 
 export class ViroMaterials {
-  static createMaterials(materials: ViroMaterialDict) {
+  /*
+  Registers the given materials with the platform. Materials can be referenced
+  right away; on Android their textures are loaded in the background, and the
+  returned promise resolves once every texture in this batch has loaded.
+   */
+  static createMaterials(materials: ViroMaterialDict): Promise<void> {
     var result: any = {};
     for (var key in materials) {
       var material = materials[key] as any; // TODO: as ViroMaterial; // types weren't working
@@ -123,7 +129,11 @@ export class ViroMaterials {
         result[key] = resultMaterial;
       }
     }
+    if (Platform.OS == "android") {
+      return MaterialManager.loadJSMaterials(result);
+    }
     MaterialManager.setJSMaterials(result);
+    return Promise.resolve();
   }
 
   /*
@@ -225,6 +225,13 @@ export type ViroARAnchorFoundEvent = {
 };
 export type ViroAnchor = any;
 
+export type ViroARAnchorBatchEvent = {
+  events: {
+    type: "found" | "updated" | "removed";
+    anchor: ViroAnchor;
+  }[];
+};
+
 export type ViroAnchorFoundMap = any;
 export type ViroAnchorUpdatedMap = any;
 
@@ -68,6 +68,35 @@ export function polarToCartesianActual(polarcoords: number[]) {
 
 import { Platform, NativeModules } from "react-native";
 
+const BASE64_CHARS =
+  "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+const BASE64_LOOKUP = new Uint8Array(256);
+for (var i = 0; i < BASE64_CHARS.length; i++) {
+  BASE64_LOOKUP[BASE64_CHARS.charCodeAt(i)] = i;
+}
+
+/**
+ * Decode the given base64 string into an ArrayBuffer. Used for the packed
+ * binary data sent by the native side, which typed arrays can then view.
+ */
+export function base64ToArrayBuffer(base64: string) {
+  var padding = base64.endsWith("==") ? 2 : base64.endsWith("=") ? 1 : 0;
+  var length = (base64.length * 3) / 4 - padding;
+  var bytes = new Uint8Array(length);
+  var byteIndex = 0;
+  for (var i = 0; i < base64.length; i += 4) {
+    var a = BASE64_LOOKUP[base64.charCodeAt(i)];
+    var b = BASE64_LOOKUP[base64.charCodeAt(i + 1)];
+    var c = BASE64_LOOKUP[base64.charCodeAt(i + 2)];
+    var d = BASE64_LOOKUP[base64.charCodeAt(i + 3)];
+    var triplet = (a << 18) | (b << 12) | (c << 6) | d;
+    if (byteIndex < length) bytes[byteIndex++] = (triplet >> 16) & 0xff;
+    if (byteIndex < length) bytes[byteIndex++] = (triplet >> 8) & 0xff;
+    if (byteIndex < length) bytes[byteIndex++] = triplet & 0xff;
+  }
+  return bytes.buffer;
+}
+
 export interface ViroiOSArSupportResponse {
   isARSupported: boolean;
 }
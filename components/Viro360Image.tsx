@@ -37,6 +37,13 @@ type Props = ViewProps & {
   format?: "RGBA8" | "RGB565";
   steroMode?: "LeftRight" | "RightLeft" | "TopBottom" | "BottomTop" | "None";
   isHdr?: boolean;
+  // If true, small, quickly decoded versions of the panorama are shown while
+  // the full resolution image loads. Has no effect on HDR images. Android-only.
+  progressive?: boolean;
+  // If true, the panorama is shown at a coarse resolution with full resolution
+  // tiles streamed in where the camera is looking. For panoramas larger than
+  // the GPU's max texture size. Has no effect on HDR images. Android-only.
+  tiled?: boolean;
   /**
    * Callback triggered when we are processing the assets to be
    * displayed in this 360 Photo (either downloading / reading from file).
@@ -47,6 +47,14 @@ type Props = {
 
   mipmap?: boolean;
   format?: "RGBA8" | "RGB565";
+  // If true, small, quickly decoded versions of the source are shown while
+  // the full resolution image loads. Android-only.
+  progressive?: boolean;
+  // Images with the same atlasGroup that are at most 256px are packed into
+  // shared atlas textures, so they can be drawn with one material. Meant for
+  // many small icons. Ignored for images with materials or a stereoMode.
+  // Android-only.
+  atlasGroup?: string;
   /**
    * Callback triggered when we are processing the assets to be
    * displayed in this ViroImage (either downloading / reading from file).
@@ -180,6 +188,59 @@ export class ViroImage extends ViroBase<Props> {
       ViroImageModule.evictFromCache(image);
     }
   };
+
+  // Fetches the given image sources at low priority so that a later scene can
+  // show them without waiting on the network. Set toMemoryCache to also decode
+  // them; decoded images are only reused by images with the same format and
+  // maxSize (in pixels). On API 28+ toMemoryCache has no effect for local
+  // images (resources, assets and files), which are decoded in place rather
+  // than from the memory cache. Cancelled prefetches count as failed.
+  // Android-only; elsewhere this resolves immediately.
+  static prefetch = (
+    imageSources: ViroSource[],
+    options?: {
+      toMemoryCache?: boolean;
+      format?: "RGBA8" | "RGB565";
+      maxSize?: number;
+    }
+  ): Promise<{ succeeded: number; failed: number }> => {
+    if (Platform.OS == "android") {
+      var images = imageSources.map((imageSource) =>
+        resolveAssetSource(imageSource)
+      );
+      return ViroImageModule.prefetch(images, options || {});
+    }
+    return Promise.resolve({ succeeded: 0, failed: 0 });
+  };
+
+  // Returns counters describing image loading and texture caching, including
+  // the estimated texture memory in use (textureBytes) and its budget.
+  // Android-only.
+  static getCacheStats = (): Promise<{ [key: string]: number }> => {
+    if (Platform.OS == "android") {
+      return ViroImageModule.getCacheStats();
+    }
+    return Promise.resolve({});
+  };
+
+  // Sets how many bytes of texture memory Viro aims to stay under. Textures
+  // that are no longer shown are evicted, least recently used first, to get
+  // there. Android-only.
+  static setTextureMemoryBudget = (bytes: number) => {
+    if (Platform.OS == "android") {
+      ViroImageModule.setTextureMemoryBudget(bytes);
+    }
+  };
+
+  // Enables an on-disk cache of decoded local images (resources, assets and
+  // files). Images decoded once are then loaded from disk as raw pixels on
+  // later runs, until their source changes, instead of being decoded again.
+  // Remote images are not cached. Android-only.
+  static setDecodedImageCacheEnabled = (enabled: boolean) => {
+    if (Platform.OS == "android") {
+      ViroImageModule.setDecodedImageCacheEnabled(enabled);
+    }
+  };
 }
 
 var VRTImage = requireNativeComponent<any>(
@@ -36,6 +36,16 @@ import { ViroOrbitCamera } from "./ViroOrbitCamera";
 type Props = ViroCommonProps & {
   onPlatformUpdate?: (platformInfo: ViroPlatformInfo) => void;
   onCameraTransformUpdate?: (cameraTransform: ViroCameraTransform) => void;
+  /**
+   * Limits onCameraTransformUpdate to at most maxUpdateRate updates per second (Android), sent
+   * only once the camera moved more than positionEpsilon meters or turned more than
+   * rotationEpsilon degrees since the last update.
+   */
+  cameraTransformUpdateOptions?: {
+    maxUpdateRate?: number;
+    positionEpsilon?: number;
+    rotationEpsilon?: number;
+  };
   onTrackingUpdated?: (
     state: ViroTrackingState,
     reason: ViroTrackingReason